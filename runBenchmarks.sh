@@ -0,0 +1,5 @@
+#!/bin/sh
+for f in jlang-benchmarks/*.jlang; do
+	echo "=== $f ==="
+	java -classpath ./bin Jlang -s < "$f" > /dev/null
+done
@@ -0,0 +1,24 @@
+#!/bin/sh
+# Run JlangClient, which has the daemon serving socket $1 run jlang with the other arguments,
+# with its classes loaded from a class-data-sharing archive, and with a JVM set up to start
+# fast rather than to run long: one compiler tier and the serial collector.  The archive
+# jlangc.jsa is made from jlangc.jar, a copy of ./bin, by a training run of test01 against a
+# daemon started for the purpose.  Both are made again whenever ./bin has changed.
+if [ ! -f jlangc.jsa ] || [ -n "$(find bin -newer jlangc.jsa -print | head -1)" ]; then
+	rm -f jlangc.jar jlangc.jsa
+	jar cf jlangc.jar -C bin . || exit 1
+	socket=$(mktemp -u "${TMPDIR:-/tmp}/jlangc.XXXXXX")
+	java -classpath jlangc.jar Jlang -D "$socket" > /dev/null &
+	daemon=$!
+	tries=0
+	while [ ! -S "$socket" ] && [ $tries -lt 100 ]; do
+		sleep 0.1
+		tries=$((tries + 1))
+	done
+	java -XX:ArchiveClassesAtExit=jlangc.jsa -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData \
+		-classpath jlangc.jar JlangClient "$socket" jlang-testscripts/test01.jlang > /dev/null
+	kill $daemon
+	wait $daemon 2> /dev/null
+fi
+exec java -XX:SharedArchiveFile=jlangc.jsa -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData \
+	-classpath jlangc.jar JlangClient "$@"
@@ -0,0 +1,12 @@
+#!/bin/sh
+# Lexing throughput of the hand-written and generated lexers, on the test scripts and
+# benchmarks repeated to make a source of several megabytes.
+source=$(mktemp)
+for i in $(seq 200); do
+	cat jlang-testscripts/*.jlang jlang-benchmarks/*.jlang >> "$source"
+done
+echo "=== hand-written ==="
+java -classpath ./bin Jlang -l -s "$source"
+echo "=== generated ==="
+java -classpath ./bin Jlang -l -L -s "$source"
+rm -f "$source"
@@ -0,0 +1,45 @@
+#!/bin/sh
+# Time from starting jlang to its first byte of output, and to its exit, for a script
+# whose first statement writes, with the classes from ./bin, from a jar, and from the
+# class-data-sharing archive made by runWithArchive.sh; then run by a daemon, from JlangClient
+# with the classes from ./bin, and from runClient.sh.  Best of five runs of each.
+script=jlang-testscripts/test01.jlang
+./runWithArchive.sh "$script" > /dev/null || exit 1
+./runClient.sh /nonexistent "$script" > /dev/null || exit 1
+milliseconds() {
+	echo $((($(date +%s%N) - $1) / 1000000))
+}
+measure() {
+	first=
+	total=
+	for i in 1 2 3 4 5; do
+		start=$(date +%s%N)
+		output=$("$@" "$script" | { head -c 1 > /dev/null; milliseconds $start; cat > /dev/null; })
+		all=$(milliseconds $start)
+		[ -z "$first" ] || [ "$output" -lt "$first" ] && first=$output
+		[ -z "$total" ] || [ "$all" -lt "$total" ] && total=$all
+	done
+	echo "first output: $first ms, exit: $total ms"
+}
+echo "=== classes ==="
+measure java -classpath ./bin Jlang
+echo "=== jar ==="
+measure java -Xshare:auto -classpath jlang.jar Jlang
+echo "=== archive ==="
+measure java -XX:SharedArchiveFile=jlang.jsa -classpath jlang.jar Jlang
+socket=$(mktemp -u "${TMPDIR:-/tmp}/jlang.XXXXXX")
+java -classpath ./bin Jlang -D "$socket" > /dev/null &
+daemon=$!
+while [ ! -S "$socket" ]; do
+	sleep 0.1
+done
+# So that the daemon's side is measured warm, as it is meant to be, and done compiling.
+for i in 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20; do
+	./runClient.sh "$socket" "$script" > /dev/null
+done
+sleep 2
+echo "=== client ==="
+measure java -classpath ./bin JlangClient "$socket"
+echo "=== client with archive ==="
+measure ./runClient.sh "$socket"
+kill $daemon
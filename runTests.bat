@@ -9,3 +9,15 @@ echo === Test04.jlang execution ===
 java -classpath .\bin Jlang < jlang-testscripts\test04.jlang
 echo === Test05.jlang execution ===
 java -classpath .\bin Jlang < jlang-testscripts\test05.jlang
+
+echo === Test06.jlang execution ===
+java -classpath .\bin Jlang < jlang-testscripts\test06.jlang
+
+echo === Test07.jlang execution ===
+java -classpath .\bin Jlang -i jlang-testscripts\test07.txt < jlang-testscripts\test07.jlang
+
+echo === Test08.jlang execution ===
+java -classpath .\bin Jlang < jlang-testscripts\test08.jlang
+
+echo === Incremental parsing ===
+java -classpath .\bin Jlang -E jlang-testscripts
\ No newline at end of file
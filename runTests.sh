@@ -10,3 +10,14 @@ java -classpath ./bin Jlang < 'jlang-testscripts/test04.jlang'
 echo "=== Test05.jlang ==="
 java -classpath ./bin Jlang < 'jlang-testscripts/test05.jlang'
 
+echo "=== Test06.jlang ==="
+java -classpath ./bin Jlang < 'jlang-testscripts/test06.jlang'
+
+echo "=== Test07.jlang ==="
+java -classpath ./bin Jlang -i 'jlang-testscripts/test07.txt' < 'jlang-testscripts/test07.jlang'
+
+echo "=== Test08.jlang ==="
+java -classpath ./bin Jlang < 'jlang-testscripts/test08.jlang'
+
+echo "=== Incremental parsing ==="
+java -classpath ./bin Jlang -E jlang-testscripts
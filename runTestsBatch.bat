@@ -0,0 +1,2 @@
+@echo off
+java -classpath .\bin Jlang -B jlang-testscripts %*
@@ -0,0 +1,2 @@
+#!/bin/sh
+java -classpath ./bin Jlang -B jlang-testscripts "$@"
@@ -0,0 +1,11 @@
+#!/bin/sh
+# Run jlang with its classes loaded from a class-data-sharing archive, so that they are
+# neither parsed nor verified at startup.  The archive needs the classes in a jar, so
+# ./bin is packaged as jlang.jar, and the archive jlang.jsa is made by a training run of
+# the test scripts.  Both are made again whenever ./bin has changed.
+if [ ! -f jlang.jsa ] || [ -n "$(find bin -newer jlang.jsa -print | head -1)" ]; then
+	rm -f jlang.jar jlang.jsa
+	jar cf jlang.jar -C bin . || exit 1
+	java -XX:ArchiveClassesAtExit=jlang.jsa -classpath jlang.jar Jlang -B jlang-testscripts -w 1 > /dev/null
+fi
+exec java -XX:SharedArchiveFile=jlang.jsa -classpath jlang.jar Jlang "$@"
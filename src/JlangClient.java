@@ -0,0 +1,7 @@
+/** Convenient runner for the client of a Jlang daemon. */
+
+public class JlangClient {
+    public static void main(String[] args) throws java.io.IOException {
+        intepreter.Client.main(args);
+    }
+}
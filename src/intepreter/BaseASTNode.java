@@ -23,8 +23,13 @@ public class BaseASTNode {
     // has a return value.
     public boolean fnHasReturn = false;
 
-    // References an object that optimises execution of the node.  For example, it might
-    // reference a compiled function definition, so that the function needn't be redefined
-    // on every execution.
+    // References an object that optimises execution of the node, set by the Optimiser before
+    // the program is executed: the Value of a literal, or the operands of a fused chain of +.
+    // It depends only on the source.  What a node is bound to by an execution, such as the
+    // variable it refers to, is kept by the Parser executing it.
     public Object optimised = null;
+
+    // Set after parsing to the node's preorder position in the AST.  Identifies the node in a
+    // run-time profile.
+    public int nodeIndex = -1;
 }
@@ -0,0 +1,226 @@
+package intepreter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Runs many scripts in one JVM, on a given number of threads.
+ *
+ * The scripts are the .jlang files in a directory, or the files matching a glob.  Each is run
+ * as `jlang <script>` would run it, by a Parser, Display and Profile of its own, with its stdout
+ * and stderr captured.  A script's read builtins read <name>.txt beside it if there is one,
+ * and otherwise nothing.  If there is a <name>.expected beside it, its output must equal that
+ * file for the script to pass.
+ *
+ * Each script's result is reported on stdout as it is known, in the order of the scripts,
+ * then a total.  A JSON summary of the results and their timings may be written to a file.
+ */
+
+class Batch {
+    static final String PASSED = "pass";
+    static final String FAILED = "fail";
+    // Run, with nothing to compare its output with.
+    static final String RAN = "ran";
+
+    /** The result of a script. */
+    static class Result {
+        final String script;
+        final String status;
+        final long nanoseconds;
+        final int outputBytes;
+        // What differs from the expected output, if the script failed.
+        final String difference;
+
+        Result(String script, String status, long nanoseconds, int outputBytes, String difference) {
+            this.script = script;
+            this.status = status;
+            this.nanoseconds = nanoseconds;
+            this.outputBytes = outputBytes;
+            this.difference = difference;
+        }
+    }
+
+    /** Return the scripts named by a directory or a glob, in order of name. */
+    static List<Path> scripts(String pattern) throws IOException {
+        Path directory = Paths.get(pattern);
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                return files.filter(file -> file.getFileName().toString().endsWith(".jlang") && Files.isRegularFile(file))
+                        .sorted().collect(Collectors.toList());
+            }
+        }
+        // Walk from the directories before the first wildcard.
+        int wildcard = pattern.length();
+        for (char c : "*?[{".toCharArray())
+            if (pattern.indexOf(c) >= 0)
+                wildcard = Math.min(wildcard, pattern.indexOf(c));
+        int separator = pattern.lastIndexOf('/', wildcard);
+        Path base = Paths.get((separator < 0) ? "." : pattern.substring(0, separator + 1));
+        if (separator < 0)
+            pattern = "./" + pattern;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(file -> matcher.matches(file) && Files.isRegularFile(file)).sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /** Run scripts on a given number of threads, reporting each result on out as it is known.
+     * Return the results, in the order of the scripts. */
+    static List<Result> run(List<Path> scripts, int threads, PrintStream out) {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jlang-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (Path script : scripts)
+                futures.add(workers.submit(() -> run(script)));
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : futures) {
+                Result result;
+                try {
+                    result = future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new Error("Batch run failed: " + e);
+                }
+                report(result, out);
+                results.add(result);
+            }
+            return results;
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    /** Report a result on out. */
+    static void report(Result result, PrintStream out) {
+        out.println(result.status.toUpperCase() + " " + result.script + " "
+                + String.format(Locale.ROOT, "%.1f", result.nanoseconds / 1e6) + " ms"
+                + ((result.difference != null) ? ": " + result.difference : ""));
+    }
+
+    // A file beside a script, with the same name and a given extension.
+    private static Path sibling(Path script, String extension) {
+        String name = script.getFileName().toString();
+        return script.resolveSibling(name.substring(0, name.length() - (name.endsWith(".jlang") ? 6 : 0)) + extension);
+    }
+
+    /** Return the arguments with which jlang runs a script, reading its input if it has one. */
+    static String[] arguments(Path script) {
+        Path input = sibling(script, ".txt");
+        return Files.exists(input)
+                ? new String[] { "-j", "1", "-i", input.toString(), script.toString() }
+                : new String[] { "-j", "1", script.toString() };
+    }
+
+    /** Return the result of a script that wrote given output in a given time, compared with
+     * what is expected of it. */
+    static Result result(Path script, byte[] output, long nanoseconds) {
+        Path expected = sibling(script, ".expected");
+        if (!Files.exists(expected))
+            return new Result(script.toString(), RAN, nanoseconds, output.length, null);
+        try {
+            String difference = difference(Files.readAllBytes(expected), output, Charset.defaultCharset());
+            return new Result(script.toString(), (difference == null) ? PASSED : FAILED, nanoseconds, output.length,
+                    difference);
+        } catch (IOException e) {
+            return new Result(script.toString(), FAILED, nanoseconds, output.length, "unable to read " + expected);
+        }
+    }
+
+    // Run a script in this JVM.
+    private static Result run(Path script) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Charset charset = Charset.defaultCharset();
+        PrintStream messages = new PrintStream(output, true, charset);
+        PrintStream err = new PrintStream(new ByteArrayOutputStream(), true, charset);
+        long start = System.nanoTime();
+        Intepreter.run(arguments(script), new Streams(new ByteArrayInputStream(new byte[0]), Channels.newChannel(output),
+                charset, messages, err, false, Paths.get("")), null);
+        return result(script, output.toByteArray(), System.nanoTime() - start);
+    }
+
+    // Describe where actual output first differs from expected, or return null if it doesn't.
+    // Lines may end with either \n or \r\n, so one expected file serves every platform.
+    private static String difference(byte[] expected, byte[] actual, Charset charset) {
+        if (Arrays.equals(expected, actual))
+            return null;
+        String[] want = new String(expected, charset).split("\r?\n", -1);
+        String[] got = new String(actual, charset).split("\r?\n", -1);
+        for (int line = 0; line < Math.max(want.length, got.length); line++) {
+            if (line >= got.length)
+                return "output ends before line " + (line + 1);
+            if (line >= want.length)
+                return "unexpected output at line " + (line + 1);
+            if (!want[line].equals(got[line]))
+                return "line " + (line + 1) + " is \"" + got[line] + "\", expected \"" + want[line] + "\"";
+        }
+        return null;
+    }
+
+    /** Write a JSON summary of results, which took a given time in all. */
+    static void writeSummary(Path file, List<Result> results, long nanoseconds) throws IOException {
+        int passed = 0;
+        int failed = 0;
+        for (Result result : results) {
+            if (result.status.equals(PASSED))
+                passed++;
+            else if (result.status.equals(FAILED))
+                failed++;
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("{\n  \"scripts\": " + results.size() + ",\n  \"passed\": " + passed + ",\n  \"failed\": " + failed
+                    + ",\n  \"unchecked\": " + (results.size() - passed - failed) + ",\n  \"elapsedMs\": "
+                    + milliseconds(nanoseconds) + ",\n  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                Result result = results.get(i);
+                out.write(((i == 0) ? "" : ",") + "\n    { \"script\": " + quote(result.script) + ", \"status\": \""
+                        + result.status + "\", \"elapsedMs\": " + milliseconds(result.nanoseconds)
+                        + ", \"outputBytes\": " + result.outputBytes
+                        + ((result.difference != null) ? ", \"difference\": " + quote(result.difference) : "") + " }");
+            }
+            out.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String milliseconds(long nanoseconds) {
+        return String.format(Locale.ROOT, "%.3f", nanoseconds / 1e6);
+    }
+
+    // A string as a JSON string literal.
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                quoted.append('\\').append(c);
+            else if (c < ' ')
+                quoted.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
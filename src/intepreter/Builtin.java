@@ -0,0 +1,56 @@
+package intepreter;
+
+/** A built-in function.  A user-defined function of the same name takes precedence.
+ *
+ *  readline()  - the next line of input, as a string
+ *  readtoken() - the next blank-delimited token, as a string
+ *  readint()   - the next token, as an integer
+ *  readfloat() - the next token, as a float
+ *  eof()       - true if there is no more input
+ *  snapshot()  - a top-level statement, which saves the state of the program to the -z file,
+ *                for later runs to resume from.  See Snapshot.
+ */
+
+class Builtin {
+    static final int READLINE = 0;
+    static final int READTOKEN = 1;
+    static final int READINT = 2;
+    static final int READFLOAT = 3;
+    static final int EOF = 4;
+    static final int SNAPSHOT = 5;
+
+    private static final Builtin[] builtins = {
+        new Builtin("readline", READLINE),
+        new Builtin("readtoken", READTOKEN),
+        new Builtin("readint", READINT),
+        new Builtin("readfloat", READFLOAT),
+        new Builtin("eof", EOF),
+        new Builtin("snapshot", SNAPSHOT)
+    };
+
+    private final String name;
+    private final int id;
+
+    private Builtin(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /** Find a built-in function.  Return null if it doesn't exist. */
+    static Builtin find(String name) {
+        for (Builtin builtin : builtins)
+            if (builtin.name.equals(name))
+                return builtin;
+        return null;
+    }
+
+    /** Get the name. */
+    String getName() {
+        return name;
+    }
+
+    /** Get the id, one of the constants above. */
+    int getId() {
+        return id;
+    }
+}
@@ -0,0 +1,90 @@
+package intepreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+import parser.ast.JlangTreeConstants;
+
+/** A format of files that hold something made from a source, such as its tree, behind a header
+ * that says what it is and checks it.
+ *
+ * The header is a magic number and a version, which identify the format, an identifier of the
+ * grammar the source was parsed with, the SHA-256 hash of the source, and the CRC and length of
+ * the body.  A file is written to a temporary file beside it and renamed, so that it is never
+ * seen half written, and is memory-mapped to be read.  Used by ProgramCache and Snapshot.
+ */
+
+class CheckedFile {
+    // Identifies the node kinds, which change when the grammar does.
+    private static final int GRAMMAR = String.join(",", JlangTreeConstants.jjtNodeName).hashCode();
+
+    // Magic, version, grammar, hash, CRC and length of the body.
+    private static final int HEADER = 4 + 2 + 4 + 32 + 8 + 4;
+
+    private final int magic;
+    private final int version;
+    // What a file holds, for messages.
+    private final String name;
+
+    /** Ctor for the format with a given magic number and version, of files that hold name. */
+    CheckedFile(int magic, int version, String name) {
+        this.magic = magic;
+        this.version = version;
+        this.name = name;
+    }
+
+    /** Write body, made from the source with a given hash, to file, replacing it. */
+    void write(Path file, byte[] hash, ByteBuffer body) throws IOException {
+        body = body.duplicate();
+        CRC32 check = new CRC32();
+        check.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(magic).putShort((short)version).putInt(GRAMMAR).put(hash).putLong(check.getValue())
+                .putInt(body.remaining()).flip();
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "jlang", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer[] buffers = { header, body };
+                while (body.hasRemaining())
+                    channel.write(buffers);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+    }
+
+    /** Map file, check that it is of this format and was made from the source with a given hash,
+     * and return its body.  Throw IOException saying why if it is unusable. */
+    ByteBuffer read(Path file, byte[] hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Not a " + name + ".");
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (bytes.getInt() != magic || bytes.getShort() != version || bytes.getInt() != GRAMMAR)
+                throw new IOException("Not a " + name + " of this version.");
+            byte[] storedHash = new byte[hash.length];
+            bytes.get(storedHash);
+            if (!MessageDigest.isEqual(storedHash, hash))
+                throw new IOException("The " + name + " is stale.");
+            long crc = bytes.getLong();
+            if (bytes.getInt() != bytes.remaining())
+                throw new IOException("The " + name + " is truncated.");
+            ByteBuffer body = bytes.slice();
+            CRC32 check = new CRC32();
+            check.update(body.duplicate());
+            if (check.getValue() != crc)
+                throw new IOException("The " + name + " is corrupt.");
+            return body;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package intepreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/** A thin client of Daemon, which has a script run by a daemon instead of in its own JVM.
+ *
+ * `jlangc <socket> <arguments>` behaves as `jlang <arguments>`: it sends the arguments, its
+ * working directory and its stdin to the daemon on <socket>, and writes what the run writes
+ * to its stdout and stderr.  It loads none of the interpreter, so it starts as fast as a JVM
+ * can.  If no daemon is serving <socket>, the script is run here instead.
+ */
+
+public class Client {
+    private static final int FRAME_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: jlangc <socket> [<jlang arguments>]");
+            return;
+        }
+        String[] runArgs = Arrays.copyOfRange(args, 1, args.length);
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(args[0]));
+        } catch (IOException e) {
+            Intepreter.main(runArgs);
+            return;
+        }
+        // A channel, so that closing it wakes the thread blocked reading it.  A thread left blocked
+        // in a read would hold up the JVM's exit by a third of a second.
+        FileChannel in = new FileInputStream(FileDescriptor.in).getChannel();
+        try (channel; in) {
+            sendRun(channel, runArgs);
+            Thread stdin = new Thread(() -> sendInput(channel, in), "jlangc-stdin");
+            stdin.setDaemon(true);
+            stdin.start();
+            receiveOutput(channel);
+        }
+    }
+
+    private static void sendRun(SocketChannel channel, String[] args) throws IOException {
+        String encoding = System.getProperty("sun.stdout.encoding");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(Daemon.VERSION);
+        header.writeBoolean(Streams.isTerminal());
+        header.writeUTF((encoding != null) ? encoding : Charset.defaultCharset().name());
+        header.writeUTF(Paths.get("").toAbsolutePath().toString());
+        header.writeInt(args.length);
+        for (String arg : args)
+            header.writeUTF(arg);
+        writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    // Send stdin as it is read, until it ends or the daemon stops reading.
+    private static void sendInput(SocketChannel channel, FileChannel in) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + FRAME_SIZE);
+        try {
+            int count;
+            do {
+                frame.clear().position(4);
+                count = Math.max(in.read(frame), 0);
+                frame.flip();
+                frame.putInt(0, count);
+                writeFully(channel, frame);
+            } while (count > 0);
+        } catch (IOException e) {
+            // The run is over.
+        }
+    }
+
+    // Copy frames from the daemon to stdout and stderr until the end of the run.
+    private static void receiveOutput(SocketChannel channel) throws IOException {
+        FileChannel stdout = new FileOutputStream(FileDescriptor.out).getChannel();
+        FileChannel stderr = new FileOutputStream(FileDescriptor.err).getChannel();
+        ByteBuffer header = ByteBuffer.allocate(5);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+        while (true) {
+            header.clear().limit(1);
+            if (!readFully(channel, header) || header.get(0) == Daemon.END)
+                return;
+            header.limit(5);
+            if (!readFully(channel, header))
+                return;
+            int length = header.getInt(1);
+            if (length > frame.capacity())
+                frame = ByteBuffer.allocate(length);
+            frame.clear().limit(length);
+            if (!readFully(channel, frame))
+                return;
+            frame.flip();
+            FileChannel out = (header.get(0) == Daemon.STDERR) ? stderr : stdout;
+            try {
+                while (frame.hasRemaining())
+                    out.write(frame);
+            } catch (IOException e) {
+                // Whatever reads our output has stopped, so the run is of no more use.
+                return;
+            }
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining())
+            channel.write(bytes);
+    }
+
+    // Fill bytes to its limit.  Return false if the daemon closes the connection first.
+    private static boolean readFully(SocketChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes) < 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+package intepreter;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** The Programs a Daemon has compiled, by the hash of their source, so that a script that is
+ * run again is neither parsed nor compiled again.
+ *
+ * At most a given number are kept; when there are more, the least recently run is dropped.
+ * A Program is immutable once compiled, so one can be executed by several runs at once.
+ * Thread-safe.
+ */
+
+class CompiledPrograms {
+    private final LinkedHashMap<ByteBuffer, Program> programs;
+    private long hits = 0;
+    private long misses = 0;
+
+    /** Ctor for a cache of at most capacity programs. */
+    CompiledPrograms(final int capacity) {
+        programs = new LinkedHashMap<ByteBuffer, Program>(16, 0.75f, true) {
+            private static final long serialVersionUID = 0;
+
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Program> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Get the program with a given source hash, or null if it is not cached. */
+    synchronized Program get(byte[] hash) {
+        Program program = programs.get(ByteBuffer.wrap(hash));
+        if (program == null)
+            misses++;
+        else
+            hits++;
+        return program;
+    }
+
+    /** Cache a program with a given source hash. */
+    synchronized void put(byte[] hash, Program program) {
+        programs.put(ByteBuffer.wrap(hash), program);
+    }
+
+    /** Describe the cache and how often it has been hit. */
+    synchronized String describe() {
+        return programs.size() + " programs, " + hits + " hits, " + misses + " misses";
+    }
+}
@@ -0,0 +1,394 @@
+package intepreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Runs scripts on several worker processes, each a Daemon, and merges their results.
+ *
+ * Workers are either processes the coordinator starts, each serving a socket in a temporary
+ * directory, or daemons that are already running.  A worker is sent scripts as a JlangClient
+ * would send them, in the Daemon's protocol of length-prefixed frames, up to a given number at
+ * a time, and is sent the next as soon as one finishes.
+ *
+ * Scripts are handed out longest first, so that a long one is not left to run alone at the
+ * end.  How long a script takes is what it took the last time, as recorded in a timings file
+ * of lines of nanoseconds and script; scripts not yet timed are handed out before the rest,
+ * largest first.
+ *
+ * If a worker fails while running a script, the script is run again, on whatever worker is
+ * free, up to RETRIES more times.  A worker the coordinator started is then started again;
+ * one it didn't is used again if it can still be connected to, and otherwise given up.
+ *
+ * A script that runs for longer than a given timeout fails, and is not run again.  Its worker
+ * is failed too, since it may still be running the script: one the coordinator started is
+ * killed and started again, and one it didn't is given up.
+ *
+ * Results are reported in the order of the scripts, each as soon as it and those before it are
+ * known, as by Batch.
+ */
+
+class Coordinator {
+    private static final int RETRIES = 2;
+    // Seconds to wait for a started worker to serve its socket.
+    private static final int START_TIMEOUT = 30;
+
+    // A worker process, and the connections to it.
+    private static class Worker {
+        private final Path socket;
+        // The process, if the coordinator started it.
+        private Process process;
+        private boolean failed = false;
+
+        Worker(Path socket, Process process) {
+            this.socket = socket;
+            this.process = process;
+        }
+
+        // Start a worker serving a socket, and wait until it does.
+        static Worker start(Path socket, int threads) throws IOException {
+            Worker worker = new Worker(socket, null);
+            worker.startProcess(threads);
+            return worker;
+        }
+
+        private void startProcess(int threads) throws IOException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    Intepreter.class.getName(), "-D", socket.toString(), "-w", Integer.toString(threads))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            long deadline = System.nanoTime() + START_TIMEOUT * 1000000000L;
+            while (!Daemon.isServing(socket)) {
+                if (!process.isAlive() || System.nanoTime() > deadline) {
+                    process.destroyForcibly();
+                    throw new IOException("Worker on " + socket + " did not start.");
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted starting worker.");
+                }
+            }
+        }
+
+        // Run a script with given arguments, as if in a given directory, and return its output.
+        // Throw IOException if the worker fails before the script has finished, and
+        // TimeoutException if the script hasn't finished after timeout seconds, as timed by
+        // alarms.
+        byte[] run(String[] args, Path directory, ScheduledExecutorService alarms, int timeout)
+                throws IOException, TimeoutException {
+            SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+            AtomicBoolean timedOut = new AtomicBoolean();
+            // Closing the channel ends a read that is waiting for the script.
+            ScheduledFuture<?> alarm = alarms.schedule(() -> {
+                timedOut.set(true);
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // It is closed.
+                }
+            }, timeout, TimeUnit.SECONDS);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeInt(Daemon.VERSION);
+                out.writeBoolean(false);
+                out.writeUTF(Charset.defaultCharset().name());
+                out.writeUTF(directory.toString());
+                out.writeInt(args.length);
+                for (String arg : args)
+                    out.writeUTF(arg);
+                // No stdin.
+                out.writeInt(0);
+                out.flush();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                int stream;
+                while ((stream = in.readByte()) != Daemon.END) {
+                    byte[] frame = new byte[in.readInt()];
+                    in.readFully(frame);
+                    if (stream == Daemon.STDOUT)
+                        output.write(frame);
+                }
+                return output.toByteArray();
+            } catch (IOException e) {
+                if (timedOut.get())
+                    throw new TimeoutException("timed out after " + timeout + " s");
+                throw (e instanceof EOFException) ? new IOException("Worker on " + socket + " stopped.") : e;
+            } finally {
+                alarm.cancel(false);
+                channel.close();
+            }
+        }
+
+        // Make this worker usable again after it has failed.  Return false if it can't be.
+        synchronized boolean recover(int threads) {
+            if (failed)
+                return false;
+            if (process != null && !process.isAlive()) {
+                try {
+                    startProcess(threads);
+                } catch (IOException e) {
+                    failed = true;
+                }
+            } else if (process == null && !Daemon.isServing(socket))
+                failed = true;
+            return !failed;
+        }
+
+        // Fail this worker, which is running a script that has run too long: kill it if the
+        // coordinator started it, so that recover() starts it again, and otherwise give it up.
+        synchronized void abandon() {
+            if (process == null) {
+                failed = true;
+                return;
+            }
+            try {
+                process.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // recover() waits for it.
+            }
+        }
+
+        synchronized boolean hasFailed() {
+            return failed;
+        }
+
+        // Stop this worker if the coordinator started it, and wait while it removes its socket.
+        void stop() {
+            if (process == null)
+                return;
+            process.destroy();
+            try {
+                process.waitFor(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Leave it to stop.
+            }
+        }
+    }
+
+    // A script, and how many times it has been run by a worker that failed.
+    private static class Task {
+        final int index;
+        final Path script;
+        int failures = 0;
+        String failure;
+
+        Task(int index, Path script) {
+            this.index = index;
+            this.script = script;
+        }
+    }
+
+    private final List<Worker> workers = new ArrayList<Worker>();
+    // Scripts a worker runs at once.
+    private final int threads;
+    // Seconds a script may run for, as timed by alarms.
+    private final int timeout;
+    private final ScheduledExecutorService alarms = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jlang-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Path directory = Paths.get("").toAbsolutePath();
+    private Path temporary = null;
+    // Scripts waiting for a worker, and the number being run.  Guarded by pending.
+    private final Deque<Task> pending = new ArrayDeque<Task>();
+    private int running = 0;
+    // The number of results reported, which are the first in the order of the scripts.  Guarded
+    // by the results.
+    private int reported = 0;
+
+    /** Ctor for a coordinator of started processes, and of daemons serving sockets, each of
+     * which runs up to threads scripts at once, and fails a script after timeout seconds. */
+    Coordinator(int processes, List<Path> sockets, int threads, int timeout) throws IOException {
+        this.threads = threads;
+        this.timeout = timeout;
+        try {
+            if (processes > 0)
+                temporary = Files.createTempDirectory("jlang");
+            for (int i = 0; i < processes; i++)
+                workers.add(Worker.start(temporary.resolve("worker" + i + ".sock"), threads));
+            for (Path socket : sockets)
+                workers.add(new Worker(socket.toAbsolutePath(), null));
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+    }
+
+    /** Run scripts on the workers, in order of the times in timings, reporting the results on out
+     * in the order of the scripts, each as soon as it and those before it are known.  Return the
+     * results, in the order of the scripts. */
+    List<Batch.Result> run(List<Path> scripts, Map<String, Long> timings, PrintStream out) {
+        Batch.Result[] results = new Batch.Result[scripts.size()];
+        List<Task> order = new ArrayList<Task>();
+        for (int i = 0; i < scripts.size(); i++)
+            order.add(new Task(i, scripts.get(i)));
+        order.sort(Comparator.comparingLong((Task task) -> estimate(task.script, timings)).reversed());
+        pending.addAll(order);
+        List<Thread> runners = new ArrayList<Thread>();
+        for (Worker worker : workers) {
+            for (int i = 0; i < threads; i++) {
+                Thread runner = new Thread(() -> serve(worker, results, out), "jlang-coordinator");
+                runner.start();
+                runners.add(runner);
+            }
+        }
+        for (Thread runner : runners) {
+            try {
+                runner.join();
+            } catch (InterruptedException e) {
+                throw new Error("Interrupted coordinating workers.");
+            }
+        }
+        // What is left had no worker to run it.
+        for (Task task : pending)
+            report(results, new Batch.Result(task.script.toString(), Batch.FAILED, 0, 0,
+                    (task.failure != null) ? task.failure : "no worker left to run it"), task, out);
+        pending.clear();
+        List<Batch.Result> merged = new ArrayList<Batch.Result>();
+        for (Batch.Result result : results)
+            merged.add(result);
+        return merged;
+    }
+
+    // Estimated time of a script: the time it last took, or else more than any timed script.
+    private static long estimate(Path script, Map<String, Long> timings) {
+        Long time = timings.get(script.toString());
+        if (time != null)
+            return time;
+        try {
+            return Long.MAX_VALUE / 2 + Files.size(script);
+        } catch (IOException e) {
+            return Long.MAX_VALUE / 2;
+        }
+    }
+
+    // Run scripts on a worker until there are none left, or the worker can't be used.
+    private void serve(Worker worker, Batch.Result[] results, PrintStream out) {
+        while (!worker.hasFailed()) {
+            Task task;
+            synchronized (pending) {
+                // A script being run may yet fail, and need running again.
+                while (pending.isEmpty() && running > 0) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                task = pending.pollFirst();
+                if (task == null)
+                    return;
+                running++;
+            }
+            boolean retry = false;
+            boolean abandoned = false;
+            long start = System.nanoTime();
+            try {
+                byte[] output = worker.run(Batch.arguments(task.script), directory, alarms, timeout);
+                report(results, Batch.result(task.script, output, System.nanoTime() - start), task, out);
+            } catch (TimeoutException e) {
+                report(results, new Batch.Result(task.script.toString(), Batch.FAILED, System.nanoTime() - start,
+                        0, e.getMessage()), task, out);
+                abandoned = true;
+            } catch (IOException e) {
+                task.failure = "worker failed on attempt " + ++task.failures + ": " + e.getMessage();
+                if (task.failures > RETRIES)
+                    report(results, new Batch.Result(task.script.toString(), Batch.FAILED, System.nanoTime() - start,
+                            0, task.failure), task, out);
+                else
+                    retry = true;
+            } finally {
+                synchronized (pending) {
+                    if (retry)
+                        pending.addFirst(task);
+                    running--;
+                    pending.notifyAll();
+                }
+            }
+            if (abandoned)
+                worker.abandon();
+            if ((retry || abandoned) && !worker.recover(threads))
+                return;
+        }
+    }
+
+    // Record the result of a task, and report those not yet reported that now follow on from
+    // the last reported.
+    private void report(Batch.Result[] results, Batch.Result result, Task task, PrintStream out) {
+        synchronized (results) {
+            results[task.index] = result;
+            while (reported < results.length && results[reported] != null)
+                Batch.report(results[reported++], out);
+        }
+    }
+
+    /** Stop the workers the coordinator started. */
+    void stop() {
+        alarms.shutdownNow();
+        for (Worker worker : workers)
+            worker.stop();
+        if (temporary != null)
+            temporary.toFile().delete();
+    }
+
+    /** Read a timings file, of lines of nanoseconds and script.  Return no timings if there is
+     * no file. */
+    static Map<String, Long> readTimings(Path file) throws IOException {
+        Map<String, Long> timings = new HashMap<String, Long>();
+        if (!Files.exists(file))
+            return timings;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                try {
+                    timings.put(line.substring(space + 1), Long.parseLong(line.substring(0, space)));
+                } catch (NumberFormatException e) {
+                    // Not a timing.
+                }
+            }
+        }
+        return timings;
+    }
+
+    /** Write timings, updated with the times of results, to a timings file. */
+    static void writeTimings(Path file, Map<String, Long> timings, List<Batch.Result> results) throws IOException {
+        for (Batch.Result result : results)
+            if (result.nanoseconds > 0)
+                timings.put(result.script, result.nanoseconds);
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> timing : timings.entrySet())
+                out.write(timing.getValue() + " " + timing.getKey() + "\n");
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package intepreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** A long-lived interpreter, which runs scripts sent by Client over a Unix domain socket.
+ *
+ * Each connection is one run, with its own Parser, Display, Profile and streams, exactly as
+ * if `jlang <arguments>` had been run in the client's working directory.  Shared are the JVM,
+ * whose loaded classes and compiled code a run no longer pays for, and the compiled Programs,
+ * so that a script run before is neither parsed nor compiled again.
+ *
+ * Runs are executed by a fixed number of workers.  Connections waiting for one are queued,
+ * up to QUEUED_PER_WORKER a worker; beyond that, connections are left to wait in the
+ * socket's backlog until the queue has room.  Every STATISTICS_INTERVAL seconds in which
+ * anything ran, the daemon reports on stdout the runs completed and their rate, the longest
+ * queue, the percentiles of latency from accepting a connection to finishing its run, and
+ * the hits and misses of the program cache.
+ *
+ * The client sends, big-endian:
+ *
+ *  int VERSION, boolean whether its stdout is a terminal, UTF the name of its stdout encoding,
+ *  UTF its working directory, int the number of arguments, UTF each argument,
+ *  then its stdin as frames of an int length and that many bytes, ending with a length of 0.
+ *
+ * The daemon sends frames of a byte STDOUT or STDERR, an int length and that many bytes, as
+ * they are written, then a byte END.
+ */
+
+class Daemon {
+    static final int VERSION = 1;
+
+    static final int END = 0;
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+
+    private static final int QUEUED_PER_WORKER = 16;
+    private static final int STATISTICS_INTERVAL = 10;
+
+    private final ThreadPoolExecutor workers;
+    // Runs that may be queued or running.
+    private final Semaphore slots;
+    private final CompiledPrograms programs;
+    private final Statistics statistics = new Statistics();
+
+    /** Ctor for a daemon with a given number of workers, which caches programs in programs. */
+    Daemon(int workerCount, CompiledPrograms programs) {
+        this.programs = programs;
+        slots = new Semaphore(workerCount * (1 + QUEUED_PER_WORKER));
+        AtomicInteger threads = new AtomicInteger();
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "jlang-worker-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /** True if a daemon is serving the socket at path, because it can be connected to. */
+    static boolean isServing(Path path) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // It was connected, which is all that was asked.
+        }
+        return true;
+    }
+
+    /** Serve runs on a socket until the JVM is stopped.  A socket file left by a daemon that
+     * is no longer running is replaced. */
+    void serve(Path path) {
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            if (Files.exists(path)) {
+                if (isServing(path)) {
+                    System.out.println("A daemon is already serving " + path + ".");
+                    return;
+                }
+                Files.delete(path);
+            }
+            server.bind(UnixDomainSocketAddress.of(path));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> path.toFile().delete()));
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "jlang-statistics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reporter.scheduleAtFixedRate(this::report, STATISTICS_INTERVAL, STATISTICS_INTERVAL, TimeUnit.SECONDS);
+            while (true) {
+                slots.acquireUninterruptibly();
+                SocketChannel client;
+                try {
+                    client = server.accept();
+                } catch (IOException e) {
+                    slots.release();
+                    throw e;
+                }
+                long accepted = System.nanoTime();
+                workers.execute(() -> {
+                    try {
+                        run(client);
+                    } finally {
+                        statistics.record(System.nanoTime() - accepted);
+                        slots.release();
+                    }
+                });
+                statistics.queued(workers.getQueue().size());
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to serve " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Report what has run since the last report, if anything has.
+    private void report() {
+        String runs = statistics.take(STATISTICS_INTERVAL);
+        if (runs != null)
+            System.out.println(runs + ", " + programs.describe());
+    }
+
+    // Read a run from a client, and run it.
+    private void run(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+            if (in.readInt() != VERSION)
+                return;
+            boolean terminal = in.readBoolean();
+            Charset charset = Charset.forName(in.readUTF());
+            Path directory = Paths.get(in.readUTF());
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = in.readUTF();
+            FrameChannel stdout = new FrameChannel(out, STDOUT);
+            PrintStream messages = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(stdout)), true,
+                    charset);
+            PrintStream err = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(
+                    new FrameChannel(out, STDERR))), true, charset);
+            try {
+                Intepreter.run(args, new Streams(new FrameInputStream(in), stdout, charset, messages, err, terminal,
+                        directory), programs);
+            } finally {
+                messages.flush();
+                err.flush();
+            }
+            synchronized (out) {
+                out.writeByte(END);
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client has gone, or sent something other than a run; there is no one to tell.
+        }
+    }
+
+    // What has run since the last report.  Thread-safe.
+    private static class Statistics {
+        private long[] latencies = new long[1024];
+        private int count = 0;
+        private int longestQueue = 0;
+
+        // Record the latency of a run, in nanoseconds.
+        synchronized void record(long latency) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, 2 * count);
+            latencies[count++] = latency;
+        }
+
+        // Record the length of the queue.
+        synchronized void queued(int length) {
+            longestQueue = Math.max(longestQueue, length);
+        }
+
+        // Describe what has run in the last interval seconds and start again, or return null if
+        // nothing has.
+        synchronized String take(int interval) {
+            if (count == 0)
+                return null;
+            Arrays.sort(latencies, 0, count);
+            String report = count + " runs (" + String.format(Locale.ROOT, "%.1f", (double)count / interval)
+                    + "/s), longest queue " + longestQueue
+                    + ", latency ms p50 " + percentile(50) + " p90 " + percentile(90) + " p99 " + percentile(99)
+                    + " max " + percentile(100);
+            count = 0;
+            longestQueue = 0;
+            return report;
+        }
+
+        // The latency in milliseconds that a given percentage of the runs took at most.
+        private String percentile(int percent) {
+            int index = Math.max((count * percent + 99) / 100 - 1, 0);
+            return String.format(Locale.ROOT, "%.1f", latencies[index] / 1e6);
+        }
+    }
+
+    // Writes to a client as frames of one of its streams.
+    private static class FrameChannel implements WritableByteChannel {
+        private final DataOutputStream out;
+        private final int stream;
+
+        FrameChannel(DataOutputStream out, int stream) {
+            this.out = out;
+            this.stream = stream;
+        }
+
+        public int write(ByteBuffer bytes) throws IOException {
+            int length = bytes.remaining();
+            if (length == 0)
+                return 0;
+            synchronized (out) {
+                out.writeByte(stream);
+                out.writeInt(length);
+                if (bytes.hasArray()) {
+                    out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+                    bytes.position(bytes.limit());
+                } else {
+                    byte[] copy = new byte[length];
+                    bytes.get(copy);
+                    out.write(copy);
+                }
+                out.flush();
+            }
+            return length;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    // Reads a client's stdin from its frames.
+    private static class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        // Bytes left in the current frame, or -1 at the end of stdin.
+        private int remaining = 0;
+
+        FrameInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : b[0] & 0xFF;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (remaining == 0) {
+                try {
+                    remaining = in.readInt();
+                } catch (EOFException e) {
+                    remaining = 0;
+                }
+                if (remaining <= 0)
+                    remaining = -1;
+            }
+            if (remaining < 0)
+                return -1;
+            int count = in.read(b, off, Math.min(len, remaining));
+            if (count < 0) {
+                remaining = -1;
+                return -1;
+            }
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -11,33 +11,34 @@ class Display {
     private FunctionInvocation[] display = new FunctionInvocation[maximumFunctionNesting];
     private int currentLevel;
 
-    /** Reference to a slot. */
-    class Reference {
-        private int displayDepth;
-        private int slotNumber;
+    /** Reference to a slot: a level of the display, and a slot of the invocation at that level.
+     * It is read and written through the Display, so one Reference is valid in any Display. */
+    static final class Reference {
+        private final int displayDepth;
+        private final int slotNumber;
 
         /** Ctor */
         Reference(int depth, int slot) {
             displayDepth = depth;
             slotNumber = slot;
         }
-
-        /** Set value pointed to by this reference. */
-        void setValue(Value v) {
-            display[displayDepth].setValue(slotNumber, v);
-        }
-
-        /** Get value pointed to by this reference. */
-        Value getValue() {
-            return display[displayDepth].getValue(slotNumber);
-        }
     }
 
     /** Ctor */
     Display() {
+        this(new FunctionInvocation(new FunctionDefinition("%main", 0)));
+    }
+
+    /** Ctor for a display whose root scope is a given invocation of the main program. */
+    Display(FunctionInvocation main) {
         // root or 0th scope
         currentLevel = 0;
-        display[currentLevel] = new FunctionInvocation(new FunctionDefinition("%main", currentLevel));
+        display[currentLevel] = main;
+    }
+
+    /** Get the invocation of the main program. */
+    FunctionInvocation getMain() {
+        return display[0];
     }
 
     /** Execute a function in its scope, using a specified parser. */
@@ -47,10 +48,23 @@ class Display {
         int oldLevel = currentLevel;
         display[changeLevel] = fn;
         currentLevel = changeLevel;
-        Value v = display[currentLevel].execute(p);
-        display[changeLevel] = oldContext;
-        currentLevel = oldLevel;
-        return v;
+        try {
+            return display[currentLevel].execute(p);
+        } finally {
+            // Restored even if the function fails, so that what follows runs in the caller's scope.
+            display[changeLevel] = oldContext;
+            currentLevel = oldLevel;
+        }
+    }
+
+    /** Set value pointed to by a reference. */
+    void setValue(Reference reference, Value v) {
+        display[reference.displayDepth].setValue(reference.slotNumber, v);
+    }
+
+    /** Get value pointed to by a reference. */
+    Value getValue(Reference reference) {
+        return display[reference.displayDepth].getValue(reference.slotNumber);
     }
 
     /** Get the current scope nesting level. */
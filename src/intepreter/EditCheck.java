@@ -0,0 +1,125 @@
+package intepreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import parser.ast.IncrementalParser;
+import parser.ast.Node;
+import parser.ast.ParseException;
+import parser.ast.SimpleNode;
+
+/** Checks IncrementalParser against fresh parses, by making random edits to scripts.
+ *
+ * An edit replaces up to 40 chars at a random offset by nothing, by a fragment of Jlang, or by a
+ * piece of the script from elsewhere.  After each, the tree must be that of a fresh parse of
+ * the edited source, node for node and with the same statement extents, and the edit must fail
+ * exactly when the fresh parse does.  An edit that leaves the source unparsable is undone, and
+ * some that don't are, so that most edits are made to a parsable source.
+ */
+
+class EditCheck {
+    private static final String[] fragments = {
+        "x", "1", " ", "\n", "\t", "+", "=", "(", ")", "{", "}", ";", ",", "\"s\"", "a", "else",
+        "if (a) {", "} else {", "elseif (b) {", "write 1\n", "y = 2\n", "fn f(a) {", "return a }",
+        "//c\n", "/*c*/", "while (x < 3)", "for (i=0; i<2; i=i+1)", "b1 = [1,2]\n",
+        "switch (a) { case 1: write 1 break }"
+    };
+
+    /** Make edits random edits to script, and report on out whether they all agreed with fresh
+     * parses.  Return false if one didn't. */
+    static boolean check(Path script, int edits, Random random, PrintStream out) {
+        IncrementalParser parser;
+        try {
+            parser = new IncrementalParser(new String(Files.readAllBytes(script), StandardCharsets.UTF_8));
+        } catch (IOException | ParseException e) {
+            out.println("SKIP " + script + ": " + e.getMessage());
+            return true;
+        }
+        int unparsable = 0;
+        long reparsed = 0;
+        long parsed = 0;
+        for (int i = 0; i < edits; i++) {
+            String before = parser.getText();
+            int offset = random.nextInt(before.length() + 1);
+            int length = (random.nextInt(4) == 0) ? 0 : Math.min(before.length() - offset, random.nextInt(random.nextBoolean() ? 3 : 40));
+            String replacement = replacement(before, random);
+            String problem = edit(parser, offset, length, replacement);
+            if (problem == null && parser.getTree() == null) {
+                unparsable++;
+                problem = edit(parser, offset, replacement.length(), before.substring(offset, offset + length));
+            } else if (problem == null) {
+                reparsed += parser.getReparsedLength();
+                parsed += parser.getText().length();
+                if (random.nextInt(3) == 0)
+                    problem = edit(parser, offset, replacement.length(), before.substring(offset, offset + length));
+            }
+            if (problem != null) {
+                out.println("FAIL " + script + ": edit " + i + ", of " + length + " chars at " + offset + " by \""
+                        + replacement.replace("\n", "\\n").replace("\t", "\\t") + "\", " + problem);
+                return false;
+            }
+        }
+        out.println("PASS " + script + ": " + edits + " edits, " + unparsable + " unparsable, "
+                + String.format(Locale.ROOT, "%.1f", (parsed == 0) ? 0.0 : 100.0 * reparsed / parsed) + "% of the source reparsed");
+        return true;
+    }
+
+    // A random replacement for chars of text.
+    private static String replacement(String text, Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return "";
+            case 1:
+                int from = random.nextInt(text.length() + 1);
+                return text.substring(from, Math.min(text.length(), from + random.nextInt(30)));
+            default:
+                return fragments[random.nextInt(fragments.length)];
+        }
+    }
+
+    // Make an edit, and compare its tree with a fresh parse.  Return what differs, or null.
+    private static String edit(IncrementalParser parser, int offset, int length, String replacement) {
+        boolean failed = false;
+        try {
+            parser.edit(offset, length, replacement);
+        } catch (ParseException e) {
+            failed = true;
+        }
+        IncrementalParser fresh;
+        try {
+            fresh = new IncrementalParser(parser.getText());
+        } catch (ParseException e) {
+            fresh = null;
+        }
+        if (failed != (fresh == null))
+            return failed ? "the edit failed but a fresh parse didn't" : "a fresh parse failed but the edit didn't";
+        if (failed)
+            return (parser.getTree() == null) ? null : "the edit failed but left a tree";
+        return same(parser.getTree(), fresh.getTree()) ? null : "the tree differs from a fresh parse";
+    }
+
+    // True if two trees have the same nodes, with the same values, and their parents are right.
+    private static boolean same(SimpleNode a, SimpleNode b) {
+        if (a.getId() != b.getId() || a.jjtGetNumChildren() != b.jjtGetNumChildren())
+            return false;
+        if (!String.valueOf(a.tokenValue).equals(String.valueOf(b.tokenValue)) || a.ifHasElse != b.ifHasElse
+                || a.ifHasElseIf != b.ifHasElseIf || a.switchHasDefault != b.switchHasDefault || a.fnHasReturn != b.fnHasReturn)
+            return false;
+        Object x = a.jjtGetValue();
+        Object y = b.jjtGetValue();
+        if ((x instanceof int[] && y instanceof int[]) ? !Arrays.equals((int[])x, (int[])y) : (x != null || y != null))
+            return false;
+        for (int i = 0; i < a.jjtGetNumChildren(); i++) {
+            Node child = a.jjtGetChild(i);
+            if (child.jjtGetParent() != a || !same((SimpleNode)child, (SimpleNode)b.jjtGetChild(i)))
+                return false;
+        }
+        return true;
+    }
+}
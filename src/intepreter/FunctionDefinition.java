@@ -5,6 +5,7 @@ import java.util.Vector;
 import parser.ast.SimpleNode;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.io.Serializable;
 
 public class FunctionDefinition implements Comparable<Object>, Serializable {
@@ -127,4 +128,17 @@ public class FunctionDefinition implements Comparable<Object>, Serializable {
         return functions.get(name);
     }
 
+    /** Get the names of the local variables and parameters, by slot number. */
+    String[] getLocalNames() {
+        String[] names = new String[slots.size()];
+        for (Map.Entry<String, Integer> slot : slots.entrySet())
+            names[slot.getValue()] = slot.getKey();
+        return names;
+    }
+
+    /** Get the inner function definitions. */
+    FunctionDefinition[] getFunctions() {
+        return functions.values().toArray(new FunctionDefinition[functions.size()]);
+    }
+
 }
@@ -22,6 +22,16 @@ class FunctionInvocation {
         slots = new Vector<Value>(function.getLocalCount());
     }
 
+    /** Get the associated function. */
+    FunctionDefinition getFunction() {
+        return function;
+    }
+
+    /** Get the number of slots that have been given values. */
+    int getSlotCount() {
+        return slots.size();
+    }
+
     /** Get the level of the associated function. */
     int getLevel() {
         return function.getLevel();
@@ -0,0 +1,246 @@
+package intepreter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/** Buffered source of the read builtins.
+ *
+ * Bytes are read through one large reusable buffer, which only grows if a single line or
+ * token is longer than it, so a script can stream input of any size in constant memory.
+ * Integers and most floats are parsed straight from the buffer without creating a String.
+ * Text is decoded as UTF-8.
+ *
+ * A token is a run of characters other than spaces, tabs and line ends.  Reading a token
+ * also consumes the blanks after it up to and including the end of its line, so a
+ * readline() after the last token on a line returns the next line.
+ *
+ * Input is not thread-safe.  Each Parser reads from its own Input.
+ */
+
+class Input {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final double[] powers = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final InputStream stream;
+    // Allocated by the first read, since most programs never read.
+    private byte[] buffer = new byte[0];
+    // Unread bytes are buffer[position] to buffer[limit - 1].
+    private int position = 0;
+    private int limit = 0;
+    private boolean exhausted = false;
+
+    /** Ctor for input from a stream. */
+    Input(InputStream stream) {
+        this.stream = stream;
+    }
+
+    /** Return an Input from a file. */
+    static Input file(String name) throws IOException {
+        return new Input(new FileInputStream(name));
+    }
+
+    // Make at least one more byte available after the unread ones.  Return false at end of input.
+    private boolean fill() {
+        if (exhausted)
+            return false;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] larger = new byte[Math.max(BUFFER_SIZE, 2 * buffer.length)];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+        }
+        try {
+            int count = stream.read(buffer, limit, buffer.length - limit);
+            if (count <= 0) {
+                exhausted = true;
+                return false;
+            }
+            limit += count;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The byte at buffer[position + offset], or -1 at end of input.  May move the unread bytes.
+    private int peek(int offset) {
+        while (position + offset >= limit)
+            if (!fill())
+                return -1;
+        return buffer[position + offset] & 0xFF;
+    }
+
+    private static boolean isBlank(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /** True if there is no more input. */
+    boolean eof() {
+        return peek(0) < 0;
+    }
+
+    /** Read a line, without its line end.  Return the empty string at end of input. */
+    String readLine() {
+        int length = 0;
+        int c;
+        while ((c = peek(length)) >= 0 && c != '\n')
+            length++;
+        int end = length;
+        if (end > 0 && buffer[position + end - 1] == '\r')
+            end--;
+        String line = new String(buffer, position, end, StandardCharsets.UTF_8);
+        position += (c < 0) ? length : length + 1;
+        return line;
+    }
+
+    // Skip blanks, and return the length of the token that follows, which is at buffer[position].
+    private int token(String builtin) {
+        while (isBlank(peek(0)))
+            position++;
+        int length = 0;
+        int c;
+        while ((c = peek(length)) >= 0 && !isBlank(c))
+            length++;
+        if (length == 0)
+            throw new ExceptionSemantic(builtin + "() reached the end of input.");
+        return length;
+    }
+
+    // Consume a token and the blanks after it up to the end of its line.
+    private void consume(int length) {
+        position += length;
+        int c;
+        while ((c = peek(0)) == ' ' || c == '\t' || c == '\r')
+            position++;
+        if (c == '\n')
+            position++;
+    }
+
+    /** Read a token. */
+    String readToken() {
+        int length = token("readtoken");
+        String text = new String(buffer, position, length, StandardCharsets.UTF_8);
+        consume(length);
+        return text;
+    }
+
+    /** Read a token that is an integer. */
+    long readInteger() {
+        int length = token("readint");
+        int i = position;
+        int end = position + length;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+')
+            i++;
+        if (i == end)
+            throw notA("an integer", length);
+        // Accumulate negatively, so that Long.MIN_VALUE can be read.
+        long n = 0;
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw notA("an integer", length);
+            if (n < (Long.MIN_VALUE + digit) / 10)
+                throw notA("an integer in range", length);
+            n = n * 10 - digit;
+        }
+        if (!negative) {
+            if (n == Long.MIN_VALUE)
+                throw notA("an integer in range", length);
+            n = -n;
+        }
+        consume(length);
+        return n;
+    }
+
+    /** Read a token that is a float.  Tokens of up to 19 significant digits and a decimal
+     * exponent within the exactly representable powers of ten are converted directly; any
+     * other is left to Double.parseDouble().
+     */
+    double readFloat() {
+        int length = token("readfloat");
+        int i = position;
+        int end = position + length;
+        boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+')
+            i++;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        boolean exact = true;
+        for (; i < end; i++) {
+            int c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    if (seenPoint)
+                        exponent--;
+                    continue;
+                }
+                if (digits < 19) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (seenPoint)
+                        exponent--;
+                } else {
+                    exact = false;
+                    if (!seenPoint)
+                        exponent++;
+                }
+            } else if (c == '.' && !seenPoint)
+                seenPoint = true;
+            else
+                break;
+        }
+        if (!seenDigit)
+            throw notA("a float", length);
+        if (i < end) {
+            if (buffer[i] != 'e' && buffer[i] != 'E')
+                throw notA("a float", length);
+            i++;
+            boolean negativeExponent = i < end && buffer[i] == '-';
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+'))
+                i++;
+            if (i == end)
+                throw notA("a float", length);
+            int e = 0;
+            for (; i < end; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9)
+                    throw notA("a float", length);
+                if (e < 100000)
+                    e = e * 10 + digit;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double d;
+        if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            // Both operands are exact, so one correctly rounded operation gives the nearest double.
+            d = (exponent < 0) ? mantissa / powers[-exponent] : mantissa * powers[exponent];
+            if (negative)
+                d = -d;
+        } else
+            d = Double.parseDouble(new String(buffer, position, length, StandardCharsets.ISO_8859_1));
+        consume(length);
+        return d;
+    }
+
+    // The error for a token that is not what a builtin expected.
+    private ExceptionSemantic notA(String what, int length) {
+        String token = new String(buffer, position, length, StandardCharsets.UTF_8);
+        return new ExceptionSemantic("Expected " + what + " but read " + token + ".");
+    }
+}
@@ -1,38 +1,534 @@
 package intepreter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
 import parser.ast.ASTCode;
 import parser.ast.Jlang;
+import parser.ast.JlangConstants;
+import parser.ast.JlangLexer;
+import parser.ast.JlangTokenManager;
 import parser.ast.JlangVisitor;
+import parser.ast.MappedCharStream;
+import parser.ast.OffsetCharStream;
+import parser.ast.ParallelFrontEnd;
+import parser.ast.SimpleCharStream;
+import parser.ast.StreamingJlang;
 
 
 public class Intepreter {
 
-    private static void usage() {
-        System.out.println("Usage: jlang [-d1] < <source>");
-        System.out.println("          -d1 -- output AST");
+    private static void usage(PrintStream out) {
+        out.println("Usage: jlang [-d1] [-s] [-l] [-L] [-S] [-r] [-j <threads>] [-c <directory>] [-p <directory>] [-o <file>] [-f <policy>] [-i <file>] [-z <file>] [<source> | < <source>]");
+        out.println("       jlang -D <socket> [-w <workers>] [-n <programs>]");
+        out.println("       jlang -B <directory> | <glob> [-w <workers>] [-J <file>]");
+        out.println("       jlang -C <directory> | <glob> [-N <processes>] [-P <socket>]... [-w <workers>] [-J <file>] [-T <file>] [-t <seconds>]");
+        out.println("       jlang -E <directory> | <glob> [-e <edits>] [-x <seed>]");
+        out.println("          <source> -- memory-map the program from <source> instead of reading stdin;");
+        out.println("                      either is read as UTF-8");
+        out.println("          -d1 -- output AST");
+        out.println("          -s -- report elapsed time and bytes allocated on stderr");
+        out.println("          -l -- only split the source into tokens, and output how many there are");
+        out.println("          -L -- use the generated lexer instead of the hand-written one");
+        out.println("          -S -- execute each top-level statement as soon as it is parsed");
+        out.println("          -r -- read statements from stdin, and execute each as soon as it is complete");
+        out.println("                <source> is executed first");
+        out.println("          -j <threads> -- parse a large <source> in parallel on <threads> threads");
+        out.println("                          default is 1; a <source> under 512KB is parsed on one");
+        out.println("          -c <directory> -- cache the parsed program in <directory>, and load it from there");
+        out.println("          -p <directory> -- load and save the run-time profile in <directory>");
+        out.println("          -o <file> -- write output to <file> instead of stdout");
+        out.println("          -i <file> -- read input for the read builtins from <file> instead of stdin");
+        out.println("          -z <file> -- save the state of the program to <file> at snapshot(), and resume from it");
+        out.println("          -f <policy> -- flush output: exit, line, <n> (bytes) or <n>ms (interval)");
+        out.println("                         default is line if stdout is a terminal, otherwise exit");
+        out.println("          -D <socket> -- serve runs from JlangClient on the Unix domain socket <socket>");
+        out.println("          -B <directory> | <glob> -- run the .jlang files in <directory>, or those matching <glob>");
+        out.println("                  <name>.txt is read by the read builtins, and the output must match <name>.expected");
+        out.println("          -C <directory> | <glob> -- as -B, but run the scripts on worker processes");
+        out.println("          -N <processes> -- with -C, start <processes> workers, default 2 unless -P is given");
+        out.println("          -P <socket> -- with -C, also run scripts on the daemon serving <socket>");
+        out.println("          -T <file> -- with -C, hand out the longest scripts first by the timings in <file>,");
+        out.println("                       and update them");
+        out.println("          -t <seconds> -- with -C, fail a script that runs for longer than <seconds>, and its");
+        out.println("                          worker, default 600");
+        out.println("          -J <file> -- with -B or -C, write a JSON summary of the results to <file>");
+        out.println("          -E <directory> | <glob> -- make random edits to the .jlang files in <directory>, or those");
+        out.println("                  matching <glob>, and check that each is parsed incrementally as a fresh parse parses it");
+        out.println("          -e <edits> -- with -E, make <edits> edits to each file, default 500");
+        out.println("          -x <seed> -- with -E, seed the random edits with <seed>, default 1");
+        out.println("          -w <workers> -- with -D or -B, run at most <workers> scripts at once");
+        out.println("                          default is the number of processors");
+        out.println("                          with -C, run at most <workers> scripts at once on each worker, default 1");
+        out.println("          -n <programs> -- with -D, keep at most <programs> compiled programs, default 256");
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM can't say.
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    // Set flush[0] and flush[1] to the flush policy and threshold of a -f argument.  Return false
+    // if it is invalid.
+    private static boolean parseFlushPolicy(String policy, long[] flush) {
+        try {
+            if (policy.equals("exit"))
+                flush[0] = Output.EXIT;
+            else if (policy.equals("line"))
+                flush[0] = Output.LINE;
+            else if (policy.endsWith("ms")) {
+                flush[0] = Output.INTERVAL;
+                flush[1] = Long.parseLong(policy.substring(0, policy.length() - 2));
+            } else {
+                flush[0] = Output.BYTES;
+                flush[1] = Long.parseLong(policy);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return flush[1] >= 0;
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-D"))
+            serve(args);
+        else if (args.length > 0 && args[0].equals("-B")) {
+            if (!batch(args))
+                System.exit(1);
+        } else if (args.length > 0 && args[0].equals("-C")) {
+            if (!coordinate(args))
+                System.exit(1);
+        } else if (args.length > 0 && args[0].equals("-E")) {
+            if (!checkEdits(args))
+                System.exit(1);
+        } else
+            run(args, Streams.process(), null);
+    }
+
+    // Run a daemon, given the arguments -D <socket> [-w <workers>] [-n <programs>].
+    private static void serve(String[] args) {
+        int workers = Runtime.getRuntime().availableProcessors();
+        int capacity = 256;
+        String socket = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-D") && i + 1 < args.length && socket == null)
+                socket = args[++i];
+            else if (args[i].equals("-w") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]{0,3}"))
+                workers = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-n") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,6}"))
+                capacity = Integer.parseInt(args[++i]);
+            else {
+                usage(System.out);
+                return;
+            }
+        }
+        new Daemon(workers, new CompiledPrograms(capacity)).serve(Paths.get(socket));
+    }
+
+    // Run a batch, given the arguments -B <scripts> [-w <workers>] [-J <file>].  Return false if
+    // any script failed, if none matched, or if the arguments were wrong.
+    private static boolean batch(String[] args) {
+        int workers = Runtime.getRuntime().availableProcessors();
+        String scripts = null;
+        String summary = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-B") && i + 1 < args.length && scripts == null)
+                scripts = args[++i];
+            else if (args[i].equals("-w") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]{0,3}"))
+                workers = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-J") && i + 1 < args.length)
+                summary = args[++i];
+            else {
+                usage(System.out);
+                return false;
+            }
+        }
+        long startTime = System.nanoTime();
+        List<Batch.Result> results;
+        try {
+            List<Path> files = Batch.scripts(scripts);
+            if (files.isEmpty()) {
+                System.out.println("No scripts match " + scripts + ".");
+                return false;
+            }
+            results = Batch.run(files, workers, System.out);
+        } catch (IOException e) {
+            System.out.println("Unable to list " + scripts + ": " + e.getMessage());
+            return false;
+        }
+        return total(results, System.nanoTime() - startTime, summary);
+    }
+
+    // Check incremental parsing, given the arguments -E <scripts> [-e <edits>] [-x <seed>].  Return
+    // false if it differed from a fresh parse, if no scripts matched, or if the arguments were
+    // wrong.
+    private static boolean checkEdits(String[] args) {
+        int edits = 500;
+        long seed = 1;
+        String scripts = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-E") && i + 1 < args.length && scripts == null)
+                scripts = args[++i];
+            else if (args[i].equals("-e") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,7}"))
+                edits = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-x") && i + 1 < args.length && args[i + 1].matches("-?[0-9]{1,18}"))
+                seed = Long.parseLong(args[++i]);
+            else {
+                usage(System.out);
+                return false;
+            }
+        }
+        List<Path> files;
+        try {
+            files = Batch.scripts(scripts);
+        } catch (IOException e) {
+            System.out.println("Unable to list " + scripts + ": " + e.getMessage());
+            return false;
+        }
+        if (files.isEmpty()) {
+            System.out.println("No scripts match " + scripts + ".");
+            return false;
+        }
+        Random random = new Random(seed);
+        boolean passed = true;
+        for (Path file : files)
+            passed &= EditCheck.check(file, edits, random, System.out);
+        return passed;
+    }
+
+    // Run scripts on worker processes, given the arguments -C <scripts> [-N <processes>]
+    // [-P <socket>]... [-w <workers>] [-J <file>] [-T <file>] [-t <seconds>].  Return false if any
+    // script failed, if none matched, or if the arguments were wrong.
+    private static boolean coordinate(String[] args) {
+        int processes = -1;
+        List<Path> sockets = new ArrayList<Path>();
+        int workers = 1;
+        String scripts = null;
+        String summary = null;
+        String timings = null;
+        int timeout = 600;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-C") && i + 1 < args.length && scripts == null)
+                scripts = args[++i];
+            else if (args[i].equals("-N") && i + 1 < args.length && args[i + 1].matches("[0-9]{1,3}"))
+                processes = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-P") && i + 1 < args.length)
+                sockets.add(Paths.get(args[++i]));
+            else if (args[i].equals("-w") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]{0,3}"))
+                workers = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-J") && i + 1 < args.length)
+                summary = args[++i];
+            else if (args[i].equals("-T") && i + 1 < args.length)
+                timings = args[++i];
+            else if (args[i].equals("-t") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]{0,5}"))
+                timeout = Integer.parseInt(args[++i]);
+            else {
+                usage(System.out);
+                return false;
+            }
+        }
+        if (processes < 0)
+            processes = sockets.isEmpty() ? 2 : 0;
+        if (processes == 0 && sockets.isEmpty()) {
+            System.out.println("No workers to run " + scripts + " on.");
+            return false;
+        }
+        long startTime = System.nanoTime();
+        List<Path> files;
+        Map<String, Long> times;
+        try {
+            files = Batch.scripts(scripts);
+            if (files.isEmpty()) {
+                System.out.println("No scripts match " + scripts + ".");
+                return false;
+            }
+            times = (timings != null) ? Coordinator.readTimings(Paths.get(timings)) : new HashMap<String, Long>();
+        } catch (IOException e) {
+            System.out.println("Unable to list " + scripts + ": " + e.getMessage());
+            return false;
+        }
+        List<Batch.Result> results;
+        Coordinator coordinator;
+        try {
+            coordinator = new Coordinator(processes, sockets, workers, timeout);
+        } catch (IOException e) {
+            System.out.println("Unable to start workers: " + e.getMessage());
+            return false;
+        }
+        try {
+            results = coordinator.run(files, times, System.out);
+        } finally {
+            coordinator.stop();
+        }
+        boolean passed = total(results, System.nanoTime() - startTime, summary);
+        if (timings != null) {
+            try {
+                Coordinator.writeTimings(Paths.get(timings), times, results);
+            } catch (IOException e) {
+                System.out.println("Unable to write " + timings + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return passed;
+    }
+
+    // Report the total of results, which took elapsed nanoseconds, and write their summary to a
+    // file unless it is null.  Return false if any script failed.
+    private static boolean total(List<Batch.Result> results, long elapsed, String summary) {
+        int failed = 0;
+        for (Batch.Result result : results)
+            if (result.status.equals(Batch.FAILED))
+                failed++;
+        System.out.println(results.size() + " scripts, " + failed + " failed, " + elapsed / 1000000 + " ms");
+        if (summary != null) {
+            try {
+                Batch.writeSummary(Paths.get(summary), results, elapsed);
+            } catch (IOException e) {
+                System.out.println("Unable to write " + summary + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return failed == 0;
+    }
+
+    // Flush and close the output of a run, reporting a failure to write it on streams.err.
+    private static void close(Output output, Streams streams) {
+        try {
+            output.close();
+        } catch (UncheckedIOException e) {
+            streams.err.println("Unable to write output: " + e.getCause().getMessage());
+        }
+    }
+
+    /** Run the interpreter with given arguments and streams.  Programs are looked up in and added to
+     * programs, unless it is null. */
+    static void run(String[] args, Streams streams, CompiledPrograms programs) {
+        PrintStream messages = streams.messages;
         boolean debugAST = false;
-        if (args.length == 1) {
-            if (args[0].equals("-d1"))
+        boolean statistics = false;
+        boolean lexOnly = false;
+        boolean generatedLexer = false;
+        boolean streaming = false;
+        boolean interactive = false;
+        // Sequential unless asked for.
+        int threads = 1;
+        File cacheDirectory = null;
+        File profileDirectory = null;
+        String outputFile = null;
+        String inputFile = null;
+        String sourceFile = null;
+        Path snapshotFile = null;
+        long[] flush = { Output.defaultPolicy(streams.terminal), 0 };
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-d1"))
                 debugAST = true;
+            else if (args[i].equals("-s"))
+                statistics = true;
+            else if (args[i].equals("-l"))
+                lexOnly = true;
+            else if (args[i].equals("-L"))
+                generatedLexer = true;
+            else if (args[i].equals("-S"))
+                streaming = true;
+            else if (args[i].equals("-r"))
+                interactive = true;
+            else if (args[i].equals("-j") && i + 1 < args.length && args[i + 1].matches("[1-9][0-9]{0,3}"))
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-c") && i + 1 < args.length)
+                cacheDirectory = streams.resolve(args[++i]).toFile();
+            else if (args[i].equals("-p") && i + 1 < args.length)
+                profileDirectory = streams.resolve(args[++i]).toFile();
+            else if (args[i].equals("-o") && i + 1 < args.length)
+                outputFile = args[++i];
+            else if (args[i].equals("-i") && i + 1 < args.length)
+                inputFile = args[++i];
+            else if (args[i].equals("-z") && i + 1 < args.length)
+                snapshotFile = streams.resolve(args[++i]);
+            else if (args[i].equals("-f") && i + 1 < args.length && parseFlushPolicy(args[i + 1], flush))
+                i++;
+            else if (!args[i].startsWith("-") && sourceFile == null)
+                sourceFile = args[i];
             else {
-                usage();
+                usage(messages);
+                return;
+            }
+        }
+        if (streaming && profileDirectory != null) {
+            // A persisted profile numbers the nodes of the whole program.
+            messages.println("-S cannot be used with -p.");
+            return;
+        }
+        if (interactive && (profileDirectory != null || cacheDirectory != null)) {
+            // Inputs are numbered as they are executed, and never make up a whole program.
+            messages.println("-r cannot be used with -p or -c.");
+            return;
+        }
+        if (streaming && cacheDirectory != null) {
+            // A streamed program is never whole, so can't be cached.
+            messages.println("-S cannot be used with -c.");
+            return;
+        }
+        if ((streaming || interactive) && snapshotFile != null) {
+            // A snapshot resumes a whole program.
+            messages.println("-S and -r cannot be used with -z.");
+            return;
+        }
+        long startTime = System.nanoTime();
+        // Only asked for with -s, since the management classes take a while to load.
+        long startAllocated = statistics ? allocatedBytes() : 0;
+        Profile profile = null;
+        Output output;
+        try {
+            output = (outputFile != null) ? Output.file(streams.resolve(outputFile), (int)flush[0], flush[1])
+                    : Output.standardOutput(streams, (int)flush[0], flush[1]);
+        } catch (IOException e) {
+            messages.println("Unable to open " + outputFile + ": " + e.getMessage());
+            return;
+        }
+        Input input;
+        try {
+            input = (inputFile != null) ? Input.file(streams.resolve(inputFile).toString()) : new Input(streams.in);
+        } catch (IOException e) {
+            messages.println("Unable to open " + inputFile + ": " + e.getMessage());
+            close(output, streams);
+            return;
+        }
+        MappedCharStream mappedSource = null;
+        if (sourceFile != null) {
+            try {
+                mappedSource = MappedCharStream.open(streams.resolve(sourceFile));
+            } catch (IOException e) {
+                messages.println("Unable to open " + sourceFile + ": " + e.getMessage());
+                close(output, streams);
                 return;
             }
         }
-        Jlang language = new Jlang(System.in);
         try {
-            ASTCode parser = language.code();
+            ByteBuffer source = null;
+            SimpleCharStream stream;
+            if (mappedSource != null) {
+                source = mappedSource.getBytes();
+                stream = mappedSource;
+            } else if (profileDirectory != null || cacheDirectory != null || snapshotFile != null
+                    || (programs != null && !streaming && !interactive)) {
+                // A persisted profile or a cached program is keyed by a hash of the source, so read it all first.
+                // Copied rather than readAllBytes(), which on a FileInputStream tries to seek, and fails
+                // on a pipe.
+                ByteArrayOutputStream all = new ByteArrayOutputStream();
+                streams.in.transferTo(all);
+                byte[] bytes = all.toByteArray();
+                source = ByteBuffer.wrap(bytes);
+                stream = new OffsetCharStream(new InputStreamReader(new ByteArrayInputStream(bytes),
+                        StandardCharsets.UTF_8));
+            } else
+                // UTF-8, as a mapped <source> is, whatever the platform's charset.
+                stream = new OffsetCharStream(new InputStreamReader(streams.in, StandardCharsets.UTF_8));
+            JlangTokenManager tokens = generatedLexer ? new JlangTokenManager(stream) : new JlangLexer(stream);
+            if (lexOnly) {
+                long count = 0;
+                while (tokens.getNextToken().kind != JlangConstants.EOF)
+                    count++;
+                output.println(count + " tokens");
+                return;
+            }
+            if (interactive) {
+                Repl repl = new Repl(streams, output, (inputFile != null) ? new Input(streams.in) : input, input, debugAST);
+                if (mappedSource != null)
+                    repl.load(tokens);
+                repl.run();
+                return;
+            }
+            if (streaming) {
+                profile = new Profile(null, 0);
+                JlangVisitor nodeVisitor = debugAST ? new ParserDebugger(messages) : new Parser(profile, output, input);
+                new StreamingJlang(tokens, new StatementRunner(profile, nodeVisitor)).code();
+                return;
+            }
+            byte[] hash = (source != null && (programs != null || cacheDirectory != null || profileDirectory != null
+                    || snapshotFile != null)) ? Profile.hash(source) : null;
+            Snapshot.State restored = (snapshotFile != null && !debugAST) ? Snapshot.load(snapshotFile, hash) : null;
+            Program program = (restored != null) ? restored.program : (programs != null) ? programs.get(hash) : null;
+            if (program == null) {
+                ASTCode parser = null;
+                if (cacheDirectory != null)
+                    parser = ProgramCache.load(cacheDirectory, hash);
+                if (parser == null) {
+                    if (mappedSource != null && threads > 1 && ParallelFrontEnd.isLarge(source)) {
+                        // Several chunks per thread, so that an uneven split doesn't leave threads idle.
+                        ForkJoinPool pool = new ForkJoinPool(threads);
+                        try {
+                            parser = ParallelFrontEnd.parse(source, 4 * threads, pool,
+                                    generatedLexer ? JlangTokenManager::new : JlangLexer::new);
+                        } finally {
+                            pool.shutdown();
+                        }
+                    } else
+                        parser = new Jlang(tokens).code();
+                    if (cacheDirectory != null) {
+                        try {
+                            ProgramCache.save(cacheDirectory, hash, parser);
+                        } catch (IOException e) {
+                            streams.err.println("Unable to save program: " + e.getMessage());
+                        }
+                    }
+                }
+                program = Program.compile(parser);
+                if (programs != null)
+                    programs.put(hash, program);
+            }
             JlangVisitor nodeVisitor;
             if (debugAST)
-                nodeVisitor = new ParserDebugger();
+                nodeVisitor = new ParserDebugger(messages);
+            else {
+                if (profileDirectory != null)
+                    profile = Profile.load(profileDirectory, hash, program.getNodeCount());
+                else
+                    profile = new Profile(null, program.getNodeCount());
+                Parser parser = new Parser(profile, output, input);
+                if (restored != null)
+                    parser.restore(restored.main);
+                else if (snapshotFile != null)
+                    parser.setSnapshot(new Snapshot(snapshotFile, hash, program, streams.err));
+                nodeVisitor = parser;
+            }
+            if (restored != null)
+                program.execute(nodeVisitor, restored.statement + 1);
             else
-                nodeVisitor = new Parser();
-            parser.jjtAccept(nodeVisitor, null);
+                program.execute(nodeVisitor);
         } catch (Throwable e) {
-            System.out.println(e.getMessage());
+            output.println(e.getMessage());
+        } finally {
+            close(output, streams);
+            if (profile != null && profileDirectory != null) {
+                try {
+                    profile.save(profileDirectory);
+                } catch (IOException e) {
+                    streams.err.println("Unable to save profile: " + e.getMessage());
+                }
+            }
+            if (statistics) {
+                streams.err.println("elapsed: " + (System.nanoTime() - startTime) / 1000000 + " ms, allocated: "
+                        + (allocatedBytes() - startAllocated) + " bytes");
+            }
         }
 
     }
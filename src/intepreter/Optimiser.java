@@ -0,0 +1,76 @@
+package intepreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import parser.ast.*;
+import values.*;
+
+/** Compile-time rewriting of a parsed program, run once before it is executed.
+ *
+ * Rewrites are recorded in the optimised field of the nodes concerned; the tree itself is
+ * left alone, so ParserDebugger still shows the program as written.  What is recorded
+ * depends only on the source, never on an execution, so an optimised tree can be executed
+ * by any number of Parsers.  Equal string literals in one program share one Value, which lives
+ * as long as the program does.
+ */
+
+class Optimiser {
+
+    /** Optimise a program. */
+    static void optimise(SimpleNode node) {
+        optimise(node, new HashMap<String, ValueString>());
+    }
+
+    // Optimise a node, with the Values of the string literals seen so far, by their source.
+    private static void optimise(SimpleNode node, HashMap<String, ValueString> strings) {
+        if (node instanceof ASTAddOperator) {
+            fuseConcatenation((ASTAddOperator)node, strings);
+            return;
+        }
+        node.optimised = literal(node, strings);
+        for (int i = 0; i < node.jjtGetNumChildren(); i++)
+            optimise((SimpleNode)node.jjtGetChild(i), strings);
+    }
+
+    /** A left-deep chain of + such as "id=" + a + ", name=" + b is fused into one n-ary
+     * concatenation if any operand is a string literal.  The operands, leftmost first, are
+     * recorded in the optimised field of the outermost +.  Then optimise the operands.
+     */
+    private static void fuseConcatenation(ASTAddOperator root, HashMap<String, ValueString> strings) {
+        ArrayList<SimpleNode> operands = new ArrayList<SimpleNode>();
+        SimpleNode node = root;
+        while (node instanceof ASTAddOperator) {
+            operands.add((SimpleNode)node.jjtGetChild(1));
+            node = (SimpleNode)node.jjtGetChild(0);
+        }
+        operands.add(node);
+        SimpleNode[] chain = new SimpleNode[operands.size()];
+        boolean hasString = false;
+        for (int i = 0; i < chain.length; i++) {
+            chain[i] = operands.get(chain.length - 1 - i);
+            hasString |= chain[i] instanceof ASTCharacter;
+        }
+        if (hasString && chain.length > 2)
+            root.optimised = chain;
+        for (SimpleNode operand : chain)
+            optimise(operand, strings);
+    }
+
+    /** The Value of a literal, or null if node is not a literal.  A number too large to be
+     * represented is also left as null, so that it is reported when it is executed. */
+    private static Value literal(SimpleNode node, HashMap<String, ValueString> strings) {
+        try {
+            switch (node.getId()) {
+                case JlangTreeConstants.JJTCHARACTER: return strings.computeIfAbsent(node.tokenValue, ValueString::stripDelimited);
+                case JlangTreeConstants.JJTINTEGER: return ValueInteger.valueOf(Long.parseLong(node.tokenValue));
+                case JlangTreeConstants.JJTRATIONAL: return ValueFloat.valueOf(Double.parseDouble(node.tokenValue));
+                case JlangTreeConstants.JJTTRUE: return ValueBoolean.TRUE;
+                case JlangTreeConstants.JJTFALSE: return ValueBoolean.FALSE;
+                default: return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package intepreter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import values.NumberFormatter;
+
+/** Buffered destination of WRITE output.
+ *
+ * Text is encoded into one large reusable byte buffer, with a fast path for ASCII, and
+ * handed to a channel in batches.  When the buffer is written out is set by a flush policy:
+ *
+ *  EXIT     - only when the buffer is full and when the program ends
+ *  BYTES    - whenever at least a given number of bytes are buffered
+ *  INTERVAL - whenever a given number of milliseconds have passed since the last flush, whether
+ *             or not the program is writing
+ *  LINE     - at the end of every line; the default when stdout is a terminal
+ *
+ * Output is not thread-safe.  Each Parser writes to its own Output.  Under INTERVAL, a timer
+ * flushes what a program wrote before a long computation or a wait for input, so that Output
+ * locks its buffer against the timer.
+ */
+
+class Output {
+    static final int EXIT = 0;
+    static final int BYTES = 1;
+    static final int INTERVAL = 2;
+    static final int LINE = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder encoder;
+    private final boolean asciiCompatible;
+    private final byte[] lineSeparator;
+    private final int policy;
+    private final long threshold;
+    private final boolean closeable;
+    private long lastFlush = System.nanoTime();
+
+    /** Ctor for output to a channel, with a given flush policy.  threshold is the byte count
+     * of BYTES or the milliseconds of INTERVAL.  The channel is closed by close() if closeable.
+     */
+    Output(WritableByteChannel channel, Charset charset, int policy, long threshold, boolean closeable) {
+        this.channel = channel;
+        this.closeable = closeable;
+        this.policy = policy;
+        this.threshold = (policy == INTERVAL) ? threshold * 1000000 : threshold;
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+        lineSeparator = System.lineSeparator().getBytes(charset);
+    }
+
+    /** Return an Output to the stdout of a run. */
+    static Output standardOutput(Streams streams, int policy, long threshold) {
+        return create(streams.out, streams.charset, policy, threshold, false);
+    }
+
+    /** Return an Output to a file, which is created or truncated. */
+    static Output file(Path path, int policy, long threshold) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return create(channel, Charset.defaultCharset(), policy, threshold, true);
+    }
+
+    private static Output create(WritableByteChannel channel, Charset charset, int policy, long threshold,
+            boolean closeable) {
+        if (policy == INTERVAL)
+            return new Timed(channel, charset, threshold, closeable);
+        return new Output(channel, charset, policy, threshold, closeable);
+    }
+
+    /** The default flush policy: line-buffered when stdout is a terminal, otherwise on exit. */
+    static int defaultPolicy(boolean terminal) {
+        return terminal ? LINE : EXIT;
+    }
+
+    /** Write a String. */
+    void print(String s) {
+        int length = s.length();
+        if (asciiCompatible) {
+            int i = 0;
+            while (i < length) {
+                if (!bytes.hasRemaining())
+                    flush();
+                int end = Math.min(length, i + bytes.remaining());
+                for (; i < end; i++) {
+                    char c = s.charAt(i);
+                    if (c >= 0x80)
+                        break;
+                    bytes.put((byte)c);
+                }
+                if (i < end) {
+                    encode(s.substring(i));
+                    return;
+                }
+            }
+        } else
+            encode(s);
+    }
+
+    // Encode text that may not be ASCII.
+    private void encode(String s) {
+        CharBuffer chars = CharBuffer.wrap(s);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, true);
+            if (result.isOverflow()) {
+                flush();
+                continue;
+            }
+            if (encoder.flush(bytes).isOverflow()) {
+                flush();
+                continue;
+            }
+            return;
+        }
+    }
+
+    /** Write an object's String form, followed by a line separator. */
+    void println(Object o) {
+        print(String.valueOf(o));
+        newline();
+    }
+
+    /** Write a long, followed by a line separator.  Digits are formatted straight into the buffer. */
+    void println(long n) {
+        if (asciiCompatible) {
+            if (bytes.remaining() < NumberFormatter.LONG_SIZE)
+                flush();
+            bytes.position(NumberFormatter.format(n, bytes.array(), bytes.position()));
+        } else
+            print(Long.toString(n));
+        newline();
+    }
+
+    /** Write a double, followed by a line separator.  Digits are formatted straight into the buffer. */
+    void println(double d) {
+        if (asciiCompatible) {
+            if (bytes.remaining() < NumberFormatter.DOUBLE_SIZE)
+                flush();
+            bytes.position(NumberFormatter.format(d, bytes.array(), bytes.position()));
+        } else
+            print(NumberFormatter.toString(d));
+        newline();
+    }
+
+    /** Write a boolean, followed by a line separator. */
+    void println(boolean b) {
+        print(b ? "true" : "false");
+        newline();
+    }
+
+    /** End a line, and flush if the policy says so. */
+    void newline() {
+        if (bytes.remaining() < lineSeparator.length)
+            flush();
+        bytes.put(lineSeparator);
+        switch (policy) {
+            case LINE:
+                flush();
+                break;
+            case BYTES:
+                if (bytes.position() >= threshold)
+                    flush();
+                break;
+            case INTERVAL:
+                flushIfDue();
+                break;
+        }
+    }
+
+    // Flush if the interval has passed since the last flush.
+    void flushIfDue() {
+        if (System.nanoTime() - lastFlush >= threshold)
+            flush();
+    }
+
+    /** Write out everything buffered. */
+    void flush() {
+        bytes.flip();
+        try {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            bytes.clear();
+        }
+        lastFlush = System.nanoTime();
+    }
+
+    /** Flush, and close the channel unless it is stdout. */
+    void close() {
+        flush();
+        if (closeable) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** An Output under INTERVAL, flushed by a timer as well as when it is written to. */
+    private static class Timed extends Output {
+        // Shared by every Timed of the process.
+        private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jlang-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private final ScheduledFuture<?> task;
+
+        Timed(WritableByteChannel channel, Charset charset, long milliseconds, boolean closeable) {
+            super(channel, charset, INTERVAL, milliseconds, closeable);
+            long period = Math.max(milliseconds, 1);
+            task = timer.scheduleAtFixedRate(this::tick, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void tick() {
+            try {
+                flushIfDue();
+            } catch (UncheckedIOException e) {
+                // Reported by the program's next write, or by close().
+            }
+        }
+
+        synchronized void print(String s) {
+            super.print(s);
+        }
+
+        synchronized void println(long n) {
+            super.println(n);
+        }
+
+        synchronized void println(double d) {
+            super.println(d);
+        }
+
+        synchronized void newline() {
+            super.newline();
+        }
+
+        synchronized void flush() {
+            super.flush();
+        }
+
+        void close() {
+            task.cancel(false);
+            synchronized (this) {
+                super.close();
+            }
+        }
+    }
+}
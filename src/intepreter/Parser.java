@@ -11,6 +11,99 @@ public class Parser implements JlangVisitor {
     // Scope display handler  - From Sili
     private Display scope = new Display();
 
+    // Run-time profile of the program being executed.
+    private Profile profile;
+
+    // Destination of WRITE.
+    private Output output;
+
+    // Source of the read builtins.
+    private Input input;
+
+    // Where snapshot() saves the state of the program, or null if it isn't saved.
+    private Snapshot snapshot = null;
+
+    // Tagged primitive channels of the expression evaluator.  See evaluate().
+    private long word;
+    private Value reference;
+
+    // What each node, by its number, is bound to by this execution: the Display.Reference of
+    // a variable, the FunctionDefinition of a definition, or the FunctionDefinition or Builtin
+    // a call invokes.  Kept here rather than in the tree, which may be shared by other Parsers.
+    private Object[] bindings = new Object[0];
+
+    // Stack of operands being concatenated.  See concatenate().
+    private int[] operandTags = new int[16];
+    private long[] operandWords = new long[16];
+    private Value[] operandReferences = new Value[16];
+    private int operandCount = 0;
+
+    // Binary operators that may be specialised by the profile.
+    private static final int ADD = 0;
+    private static final int SUBTRACT = 1;
+    private static final int TIMES = 2;
+    private static final int DIVIDE = 3;
+    private static final int EQUAL = 4;
+    private static final int NOT_EQUAL = 5;
+    private static final int GREATER_OR_EQUAL = 6;
+    private static final int LESS_OR_EQUAL = 7;
+    private static final int GREATER = 8;
+    private static final int LESS = 9;
+
+    /** Ctor for a parser that executes a numbered program, records its profile, writes to
+     * output and reads from input.
+     */
+    public Parser(Profile profile, Output output, Input input) {
+        this.profile = profile;
+        this.output = output;
+        this.input = input;
+    }
+
+    /** Save the state of the program to snapshot when snapshot() is executed. */
+    void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /** Continue from a snapshot: make main the invocation of the main program, with its
+     * variables and functions. */
+    void restore(FunctionInvocation main) {
+        scope = new Display(main);
+        bindDefinitions(main.getFunction());
+    }
+
+    // Bind the definition node of each function defined in a definition, as executing it would,
+    // so that it is not defined again.
+    private void bindDefinitions(FunctionDefinition definition) {
+        for (FunctionDefinition function : definition.getFunctions()) {
+            bind((SimpleNode)function.getFunctionBody().jjtGetParent(), function);
+            bindDefinitions(function);
+        }
+    }
+
+    /** Forget what the nodes from first up to end are bound to, so they can be numbered again. */
+    void forget(int first, int end) {
+        if (first < bindings.length)
+            java.util.Arrays.fill(bindings, first, Math.min(end, bindings.length), null);
+    }
+
+    // Get what a node is bound to, or null if it isn't yet.
+    private Object binding(SimpleNode node) {
+        return (node.nodeIndex < bindings.length) ? bindings[node.nodeIndex] : null;
+    }
+
+    // Bind a node.
+    private void bind(SimpleNode node, Object bound) {
+        if (node.nodeIndex >= bindings.length)
+            bindings = java.util.Arrays.copyOf(bindings, Math.max(2 * bindings.length, node.nodeIndex + 1));
+        bindings[node.nodeIndex] = bound;
+    }
+
+    /** Forget the operands of an execution abandoned by an error, so that another can start. */
+    void recover() {
+        java.util.Arrays.fill(operandReferences, 0, operandCount, null);
+        operandCount = 0;
+    }
+
     // Get the ith child of a given node.  - From Sili
     private static SimpleNode getChild(SimpleNode node, int childIndex) {
         return (SimpleNode)node.jjtGetChild(childIndex);
@@ -40,7 +133,7 @@ public class Parser implements JlangVisitor {
 
     // Called if one of the following methods is missing...  - From Sili
     public Object visit(SimpleNode node, Object data) {
-        System.out.println(node + ": acceptor not implemented in subclass?");
+        output.println(node + ": acceptor not implemented in subclass?");
         return data;
     }
 
@@ -62,7 +155,7 @@ public class Parser implements JlangVisitor {
     // Function definition  - From Sili
     public Object visit(ASTFnDef node, Object data) {
         // Already defined?
-        if (node.optimised != null)
+        if (binding(node) != null)
             return data;
         // Child 0 - identifier (fn name)
         String fnname = getTokenOfChild(node, 0);
@@ -80,7 +173,7 @@ public class Parser implements JlangVisitor {
             currentFunctionDefinition.setFunctionReturnExpression(getChild(node, 3));
         // Preserve this definition for future reference, and so we don't define
         // it every time this node is processed.
-        node.optimised = currentFunctionDefinition;
+        bind(node, currentFunctionDefinition);
         return data;
     }
 
@@ -104,17 +197,15 @@ public class Parser implements JlangVisitor {
 
     // Function call  - From Sili
     public Object visit(ASTCall node, Object data) {
-        FunctionDefinition fndef;
-        if (node.optimised == null) {
-            // Child 0 - identifier (fn name)
-            String fnname = getTokenOfChild(node, 0);
-            fndef = scope.findFunction(fnname);
-            if (fndef == null)
-                throw new ExceptionSemantic("Function " + fnname + " is undefined.");
-            // Save it for next time
-            node.optimised = fndef;
-        } else
-            fndef = (FunctionDefinition)node.optimised;
+        Object function = binding(node);
+        if (function == null)
+            bind(node, function = findFunction(node));
+        if (function instanceof Builtin) {
+            builtin((Builtin)function, node);
+            return data;
+        }
+        FunctionDefinition fndef = (FunctionDefinition)function;
+        profile.invoked(node.nodeIndex);
         FunctionInvocation newInvocation = new FunctionInvocation(fndef);
         // Child 1 - arglist
         doChild(node, 1, newInvocation);
@@ -125,19 +216,18 @@ public class Parser implements JlangVisitor {
 
     // Function invocation in an expression  - From Sili
     public Object visit(ASTFnInvoke node, Object data) {
-        FunctionDefinition fndef;
-        if (node.optimised == null) {
-            // Child 0 - identifier (fn name)
-            String fnname = getTokenOfChild(node, 0);
-            fndef = scope.findFunction(fnname);
-            if (fndef == null)
-                throw new ExceptionSemantic("Function " + fnname + " is undefined.");
-            if (!fndef.hasReturn())
-                throw new ExceptionSemantic("Function " + fnname + " is being invoked in an expression but does not have a return value.");
+        Object function = binding(node);
+        if (function == null) {
+            function = findFunction(node);
+            if (function instanceof FunctionDefinition && !((FunctionDefinition)function).hasReturn())
+                throw new ExceptionSemantic("Function " + getTokenOfChild(node, 0) + " is being invoked in an expression but does not have a return value.");
             // Save it for next time
-            node.optimised = fndef;
-        } else
-            fndef = (FunctionDefinition)node.optimised;
+            bind(node, function);
+        }
+        if (function instanceof Builtin)
+            return box(builtin((Builtin)function, node));
+        FunctionDefinition fndef = (FunctionDefinition)function;
+        profile.invoked(node.nodeIndex);
         FunctionInvocation newInvocation = new FunctionInvocation(fndef);
         // Child 1 - arglist
         doChild(node, 1, newInvocation);
@@ -145,6 +235,62 @@ public class Parser implements JlangVisitor {
         return scope.execute(newInvocation, this);
     }
 
+    // Find the function named by child 0 of a call or invocation: a FunctionDefinition, or
+    // failing that a Builtin.
+    private Object findFunction(SimpleNode node) {
+        String fnname = getTokenOfChild(node, 0);
+        FunctionDefinition fndef = scope.findFunction(fnname);
+        if (fndef != null)
+            return fndef;
+        Builtin builtin = Builtin.find(fnname);
+        if (builtin == null)
+            throw new ExceptionSemantic("Function " + fnname + " is undefined.");
+        return builtin;
+    }
+
+    // Execute a built-in function into the tagged primitive channels and return its tag.
+    // Numbers read are returned as primitives without being boxed.
+    private int builtin(Builtin builtin, SimpleNode node) {
+        int argumentCount = getChild(node, 1).jjtGetNumChildren();
+        if (argumentCount != 0)
+            throw new ExceptionSemantic("Function " + builtin.getName() + " expected 0 arguments but got " + argumentCount + ".");
+        switch (builtin.getId()) {
+            case Builtin.READLINE:
+                reference = ValueString.valueOf(input.readLine());
+                return Tagged.REFERENCE;
+            case Builtin.READTOKEN:
+                reference = ValueString.valueOf(input.readToken());
+                return Tagged.REFERENCE;
+            case Builtin.READINT:
+                word = input.readInteger();
+                return Tagged.INTEGER;
+            case Builtin.READFLOAT:
+                word = Tagged.fromDouble(input.readFloat());
+                return Tagged.FLOAT;
+            case Builtin.SNAPSHOT:
+                snapshot(node);
+                word = Tagged.fromBoolean(true);
+                return Tagged.BOOLEAN;
+            default:
+                word = Tagged.fromBoolean(input.eof());
+                return Tagged.BOOLEAN;
+        }
+    }
+
+    // Save the state of the program, if it is to be saved, at a snapshot() call.
+    private void snapshot(SimpleNode node) {
+        Node statement = node.jjtGetParent();
+        Node code = (statement != null) ? statement.jjtGetParent() : null;
+        if (!(node instanceof ASTCall) || !(code instanceof ASTCode) || scope.getLevel() != 0)
+            throw new ExceptionSemantic("snapshot() must be a statement of the main program.");
+        if (snapshot == null)
+            return;
+        int index = 0;
+        while (code.jjtGetChild(index) != statement)
+            index++;
+        snapshot.save(scope.getMain(), index);
+    }
+
     // Function invocation argument list.  - From Sili
     public Object visit(ASTArgList node, Object data) {
         FunctionInvocation newInvocation = (FunctionInvocation)data;
@@ -168,28 +314,21 @@ public class Parser implements JlangVisitor {
     	//Boolean value that determines whether the if or elseif statement has been executed or not.
     	boolean hasStatementExecuted = false;
 
-        // evaluate boolean expression
-        Value hopefullyValueBoolean = doChild(node, 0);
-        if (!(hopefullyValueBoolean instanceof ValueBoolean))
-            throw new ExceptionSemantic("The test expression of an if statement must be boolean.");
         //Check the if statement and then execute it if it is true.
-        if (((ValueBoolean)hopefullyValueBoolean).booleanValue()) {
+        if (test(node, 0, "an if statement")) {
+        	profile.branch(node.nodeIndex, 0);
         	doChild(node, 1);							// if(true), therefore do 'if' statement
         	//The if statement has been executed, so set the boolean value to true.
         	hasStatementExecuted = true;
         } else if (node.ifHasElseIf) {					// does it have an elseif statement?
         	while (true) {
-        		 //Get the value to check in the elseif statement
-             	Value hopefullyValueBoolean2 = doChild(node, i);
-             	//The value in the elseif statement isn't a boolean so throw an error.
-             	if (!(hopefullyValueBoolean2 instanceof ValueBoolean)) {
-             		throw new ExceptionSemantic("The test expression of an if statement must be boolean.");
-             	}
-                 if (!((ValueBoolean)hopefullyValueBoolean2).booleanValue()) {
+        		 //Check the value in the elseif statement, which must be a boolean.
+                 if (!test(node, i, "an if statement")) {
                 	 //Increment the i value since the elseif values aren't the same and then start the loop again.
                 	i = i + 2;
                  } else {
                 	 //The statements match so execute the elseif statement.
+                 	profile.branch(node.nodeIndex, i / 2);
                  	doChild(node, (i + 1));
                  	//Now since the statement has been executed, set the boolean to true so we don't run the else statement aswell.
                  	hasStatementExecuted = true;
@@ -203,6 +342,7 @@ public class Parser implements JlangVisitor {
         //needs to be done in the else statement.
         if (node.ifHasElse && !hasStatementExecuted) {
         	//Then execute the else statement.
+        	profile.branch(node.nodeIndex, i / 2);
         	doChild(node, i);
         }
         return data;
@@ -214,11 +354,11 @@ public class Parser implements JlangVisitor {
         doChild(node, 0);
         while (true) {
             // evaluate loop test
-            Value hopefullyValueBoolean = doChild(node, 1);
-            if (!(hopefullyValueBoolean instanceof ValueBoolean))
-                throw new ExceptionSemantic("The test expression of a for loop must be boolean.");
-            if (!((ValueBoolean)hopefullyValueBoolean).booleanValue())
+            if (!test(node, 1, "a for loop")) {
+                profile.branch(node.nodeIndex, 1);
                 break;
+            }
+            profile.branch(node.nodeIndex, 0);
             // do loop statement
             doChild(node, 3);
             // assign loop increment
@@ -237,11 +377,11 @@ public class Parser implements JlangVisitor {
     public Object visit(ASTWhileLoop node, Object data) {
         while (true) {
             // evaluate loop test
-            Value hopefullyValueBoolean = doChild(node, 0);
-            if (!(hopefullyValueBoolean instanceof ValueBoolean))
-                throw new ExceptionSemantic("The test expression of a while loop must be boolean.");
-            if (!((ValueBoolean)hopefullyValueBoolean).booleanValue())
+            if (!test(node, 0, "a while loop")) {
+                profile.branch(node.nodeIndex, 1);
                 break;
+            }
+            profile.branch(node.nodeIndex, 0);
             // do loop statement
             doChild(node, 1);
         }
@@ -276,11 +416,13 @@ public class Parser implements JlangVisitor {
             		
             		//Break the switch statement if the caseValue is null.
             		if (caseValue == null) {
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
             			break;
             		}
             		//Compare the switch value as an integer with the case value obtained above.
             		if (switchValueAsValueInteger.eq(caseValue).booleanValue()) {
             			//Execute the case statement
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
                 		doChild(node, (i + 1));
                 		//The statement has already been executed so set the boolean to true.
                 		statementExecuted = true;
@@ -320,11 +462,13 @@ public class Parser implements JlangVisitor {
             		ValueBoolean caseValue = (ValueBoolean)doChild(node, i);
             		//Break the switch statement if the caseValue is null.
             		if (caseValue == null) {
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
             			break;
             		}
             		
             		if (switchValueAsValueBoolean.eq(caseValue).booleanValue()) {
             			//Execute the case statement
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
                 		doChild(node, (i + 1));
                 		//The statement has already been executed so set the boolean to true.
                 		statementExecuted = true;
@@ -364,11 +508,13 @@ public class Parser implements JlangVisitor {
             		ValueFloat caseValue = (ValueFloat)doChild(node, i);
             		//Break the switch statement if the caseValue is null.
             		if (caseValue == null) {
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
             			break;
             		}
             		
             		if (switchValueAsValueFloat.eq(caseValue).booleanValue()) {
             			//Execute the case statement
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
                 		doChild(node, (i + 1));
                 		//The statement has already been executed so set the boolean to true.
                 		statementExecuted = true;
@@ -408,11 +554,13 @@ public class Parser implements JlangVisitor {
             		ValueString caseValue = (ValueString)doChild(node, i);
             		//Break the switch statement if the caseValue is null.
             		if (caseValue == null) {
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
             			break;
             		}
             		
             		if (switchValueAsValueString.eq(caseValue).booleanValue()) {
             			//Execute the case statement
+            			profile.branch(node.nodeIndex, (i - 1) / 2);
                 		doChild(node, (i + 1));
                 		//The statement has already been executed so set the boolean to true.
                 		statementExecuted = true;
@@ -456,24 +604,43 @@ public class Parser implements JlangVisitor {
 
     // Execute the WRITE statement - From Sili
     public Object visit(ASTWrite node, Object data) {
-        System.out.println(doChild(node, 0));
+        // Primitives are printed without being boxed.
+        switch (evaluate(node, 0)) {
+            case Tagged.INTEGER: output.println(word); break;
+            case Tagged.FLOAT: output.println(Tagged.toDouble(word)); break;
+            case Tagged.BOOLEAN: output.println(Tagged.toBoolean(word)); break;
+            default: output.println(reference); break;
+        }
         return data;
     }
 
     // Dereference a variable or parameter, and return its value. - From Sili
     public Object visit(ASTDereference node, Object data) {
-        Display.Reference reference;
-        if (node.optimised == null) {
+        Display.Reference reference = (Display.Reference)binding(node);
+        if (reference == null) {
             String name = node.tokenValue;
             reference = scope.findReference(name);
             if (reference == null)
                 throw new ExceptionSemantic("Variable or parameter " + name + " is undefined.");
-            node.optimised = reference;
-        } else
-            reference = (Display.Reference)node.optimised;
-        return reference.getValue();
+            bind(node, reference);
+        }
+        return scope.getValue(reference);
     }
     
+    // Return the Reference to the variable an assignment assigns, defining it in the current
+    // scope if it doesn't exist.
+    private Display.Reference assignee(SimpleNode node) {
+        Display.Reference reference = (Display.Reference)binding(node);
+        if (reference == null) {
+            String name = getTokenOfChild(node, 0);
+            reference = scope.findReference(name);
+            if (reference == null)
+                reference = scope.defineVariable(name);
+            bind(node, reference);
+        }
+        return reference;
+    }
+
     // Execute an assignment statement.
     /*
      * The assignment statement has been modified in order to fit static typing as defined for Jlang
@@ -482,22 +649,13 @@ public class Parser implements JlangVisitor {
      * @see parser.ast.JlangVisitor#visit(parser.ast.ASTAssignment, java.lang.Object)
      */
     public Object visit(ASTAssignment node, Object data) {
-        Display.Reference reference;
-        if (node.optimised == null) {
-            String name = getTokenOfChild(node, 0);
-            reference = scope.findReference(name);
-            if (reference == null)
-                reference = scope.defineVariable(name);
-            node.optimised = reference;
-        } else {
-        	reference = (Display.Reference)node.optimised;
-        }
+        Display.Reference reference = assignee(node);
         /**********************************
          * ASSIGNMENT CODE STARTS HERE!!! *
          **********************************/
         try {
             //Get the value of the varible the user wants to assign the new value to
-            Value firstValue = reference.getValue();
+            Value firstValue = scope.getValue(reference);
             //Get the value the user wants to assign to the varible.
             Value secondValue = doChild(node, 1);
             
@@ -512,7 +670,7 @@ public class Parser implements JlangVisitor {
             		//i.e. they are both instances of the VaribleInteger class.
             		if (firstValueAsValueInteger.getClass().equals(secondValue.getClass())) {
                 		//Set the varible to what the user specify's
-                		reference.setValue(doChild(node, 1));
+                		scope.setValue(reference, secondValue);
                 	} else {
                 		//If they are not, throw an exeption.
                 		throw new ExceptionSemantic("Cannot assign from one datatype to another");
@@ -529,7 +687,7 @@ public class Parser implements JlangVisitor {
             		//i.e. they are both instances of the VaribleString class.
                 	if (firstValueAsValueString.getClass().equals(secondValue.getClass())) {
                 		//Set the varible to what the user specify's
-                		reference.setValue(doChild(node, 1));
+                		scope.setValue(reference, secondValue);
             		} else {
             			//If they are not, throw an exeption.
             			throw new ExceptionSemantic("Cannot assign from one datatype to another");
@@ -546,7 +704,7 @@ public class Parser implements JlangVisitor {
             		//i.e. they are both instances of the VaribleFloat class.
                 	if (firstValueAsValueFloat.getClass().equals(secondValue.getClass())) {
                 		//Set the varible to what the user specify's
-                		reference.setValue(doChild(node, 1));
+                		scope.setValue(reference, secondValue);
                 	} else {
                 		//If they are not, throw an exeption.
                 		throw new ExceptionSemantic("Cannot assign from one datatype to another");
@@ -563,7 +721,7 @@ public class Parser implements JlangVisitor {
             		//i.e. they are both instances of the VaribleFloat class.
                 	if (firstValueAsValueBoolean.getClass().equals(secondValue.getClass())) {
                 		//Set the varible to what the user specify's
-                		reference.setValue(doChild(node, 1));
+                		scope.setValue(reference, secondValue);
                 	} else {
                 		//If they are not, throw an exeption.
                 		throw new ExceptionSemantic("Cannot assign from one datatype to another");
@@ -594,15 +752,7 @@ public class Parser implements JlangVisitor {
     
     // Execute an assignment statement for an integer.
     public Object visit(ASTAssignmentInteger node, Object data) {
-        Display.Reference reference;
-        if (node.optimised == null) {
-            String name = getTokenOfChild(node, 0);
-            reference = scope.findReference(name);
-            if (reference == null)
-                reference = scope.defineVariable(name);
-            node.optimised = reference;
-        } else
-            reference = (Display.Reference)node.optimised;
+        Display.Reference reference = assignee(node);
         
         //Get the value the user enterd
         Value hopefullyValueInteger = doChild(node, 1);
@@ -613,21 +763,13 @@ public class Parser implements JlangVisitor {
         }
         
         //The check succeded so atually set the value
-        reference.setValue(doChild(node, 1));
+        scope.setValue(reference, hopefullyValueInteger);
         return data;
     }
     
     // Execute an assignment statement for an string.
     public Object visit(ASTAssignmentString node, Object data) {
-        Display.Reference reference;
-        if (node.optimised == null) {
-            String name = getTokenOfChild(node, 0);
-            reference = scope.findReference(name);
-            if (reference == null)
-                reference = scope.defineVariable(name);
-            node.optimised = reference;
-        } else
-            reference = (Display.Reference)node.optimised;
+        Display.Reference reference = assignee(node);
         
         //Get the value the user enterd
         Value hopefullyValueString = doChild(node, 1);
@@ -638,21 +780,13 @@ public class Parser implements JlangVisitor {
         }
         
         //The check succeded so atually set the value
-        reference.setValue(doChild(node, 1));
+        scope.setValue(reference, hopefullyValueString);
         return data;
     }
 
     // Execute an assignment statement for an float.
     public Object visit(ASTAssignmentFloat node, Object data) {
-        Display.Reference reference;
-        if (node.optimised == null) {
-            String name = getTokenOfChild(node, 0);
-            reference = scope.findReference(name);
-            if (reference == null)
-                reference = scope.defineVariable(name);
-            node.optimised = reference;
-        } else
-            reference = (Display.Reference)node.optimised;
+        Display.Reference reference = assignee(node);
 
         //Get the value the user enterd
         Value hopefullyValueFloat = doChild(node, 1);
@@ -663,21 +797,13 @@ public class Parser implements JlangVisitor {
         }
         
         //The check succeded so atually set the value
-        reference.setValue(doChild(node, 1));
+        scope.setValue(reference, hopefullyValueFloat);
         return data;
     }
     
     // Execute an assignment statement for an boolean.
     public Object visit(ASTAssignmentBoolean node, Object data) {
-        Display.Reference reference;
-        if (node.optimised == null) {
-            String name = getTokenOfChild(node, 0);
-            reference = scope.findReference(name);
-            if (reference == null)
-                reference = scope.defineVariable(name);
-            node.optimised = reference;
-        } else
-            reference = (Display.Reference)node.optimised;
+        Display.Reference reference = assignee(node);
         
       //Get the value the user enterd
         Value hopefullyValueBoolean = doChild(node, 1);
@@ -688,116 +814,335 @@ public class Parser implements JlangVisitor {
         }
         
         //The check succeded so atually set the value
-        reference.setValue(doChild(node, 1));
+        scope.setValue(reference, hopefullyValueBoolean);
         return data;
     }
+    // Evaluate an expression into the tagged primitive channels and return its tag.
+    // Integers, floats and booleans are left in word; any other Value in reference.
+    // Operators whose operands are primitives produce a primitive without allocating.
+    private int evaluate(SimpleNode node) {
+        switch (node.getId()) {
+            case JlangTreeConstants.JJTADDOPERATOR:
+                if (node.optimised != null)
+                    return tag(concatenate((SimpleNode[])node.optimised));
+                return binary(node, ADD);
+            case JlangTreeConstants.JJTSUBTRACTOPERATOR: return binary(node, SUBTRACT);
+            case JlangTreeConstants.JJTTIMESOPERATOR: return binary(node, TIMES);
+            case JlangTreeConstants.JJTDIVIDEOPERATOR: return binary(node, DIVIDE);
+            case JlangTreeConstants.JJTCOMPARISONEQUAL: return binary(node, EQUAL);
+            case JlangTreeConstants.JJTCOMPARISONNOTEQUALTO: return binary(node, NOT_EQUAL);
+            case JlangTreeConstants.JJTCOMPARISONGREATORTHANOREQUALTO: return binary(node, GREATER_OR_EQUAL);
+            case JlangTreeConstants.JJTCOMPARISONLESSTHANOREQUALTO: return binary(node, LESS_OR_EQUAL);
+            case JlangTreeConstants.JJTCOMPARISONGREATORTHAN: return binary(node, GREATER);
+            case JlangTreeConstants.JJTCOMPARISONLESSTHAN: return binary(node, LESS);
+            case JlangTreeConstants.JJTOREXPRESSION: return logical(node, true);
+            case JlangTreeConstants.JJTANDEXPRESSION: return logical(node, false);
+            case JlangTreeConstants.JJTUNARYNOTOPERATOR: return unaryNot(node);
+            case JlangTreeConstants.JJTUNARYPLUSOPERATOR: return unary(node, false);
+            case JlangTreeConstants.JJTUNARYMINUSOPERATOR: return unary(node, true);
+            case JlangTreeConstants.JJTFNINVOKE:
+                if (binding(node) instanceof Builtin)
+                    return builtin((Builtin)binding(node), node);
+                return tag((Value)node.jjtAccept(this, null));
+            default: return tag((Value)node.jjtAccept(this, null));
+        }
+    }
+
+    // Evaluate a given child into the tagged primitive channels and return its tag.
+    private int evaluate(SimpleNode node, int childIndex) {
+        return evaluate(getChild(node, childIndex));
+    }
+
+    // Load a Value into the tagged primitive channels and return its tag.
+    private int tag(Value v) {
+        int tag = Tagged.tagOf(v);
+        if (tag == Tagged.REFERENCE)
+            reference = v;
+        else
+            word = Tagged.wordOf(v, tag);
+        return tag;
+    }
+
+    // Return the Value held in the tagged primitive channels.
+    private Value box(int tag) {
+        return Tagged.box(tag, word, reference);
+    }
+
+    // Evaluate a boolean test, such as that of an IF or a loop.
+    private boolean test(SimpleNode node, int childIndex, String construct) {
+        if (evaluate(node, childIndex) != Tagged.BOOLEAN)
+            throw new ExceptionSemantic("The test expression of " + construct + " must be boolean.");
+        return Tagged.toBoolean(word);
+    }
+
+    // Execute a binary operator.  Once the profile shows the operator has only ever seen
+    // integers or only floats, it is evaluated directly on primitives.
+    private int binary(SimpleNode node, int operator) {
+        int leftTag = evaluate(node, 0);
+        long leftWord = word;
+        Value leftReference = reference;
+        int rightTag = evaluate(node, 1);
+        long rightWord = word;
+        Value rightReference = reference;
+        switch (profile.operands(node.nodeIndex, Profile.typeOf(leftTag, leftReference), Profile.typeOf(rightTag, rightReference))) {
+            case Profile.INTEGER:
+                if (leftTag == Tagged.INTEGER && rightTag == Tagged.INTEGER)
+                    return integerOperation(operator, leftWord, rightWord);
+                break;
+            case Profile.FLOAT:
+                if (leftTag == Tagged.FLOAT && rightTag == Tagged.FLOAT)
+                    return floatOperation(operator, Tagged.toDouble(leftWord), Tagged.toDouble(rightWord));
+                break;
+        }
+        Value left = Tagged.box(leftTag, leftWord, leftReference);
+        Value right = Tagged.box(rightTag, rightWord, rightReference);
+        switch (operator) {
+            case ADD: return tag(left.add(right));
+            case SUBTRACT: return tag(left.subtract(right));
+            case TIMES: return tag(left.mult(right));
+            case DIVIDE: return tag(left.div(right));
+            case EQUAL: return tag(left.eq(right));
+            case NOT_EQUAL: return tag(left.neq(right));
+            case GREATER_OR_EQUAL: return tag(left.gte(right));
+            case LESS_OR_EQUAL: return tag(left.lte(right));
+            case GREATER: return tag(left.gt(right));
+            default: return tag(left.lt(right));
+        }
+    }
+
+    // Evaluate a chain of + fused by the Optimiser, leftmost operand first.  Until the running
+    // value is a string, each + is performed as usual.  From then on the remaining operands
+    // are concatenated: they are evaluated in order, one buffer is sized for all of them and
+    // their text is appended directly, giving a single new string.
+    private Value concatenate(SimpleNode[] chain) {
+        Value value = box(evaluate(chain[0]));
+        int next = 1;
+        while (next < chain.length && !(value instanceof ValueString))
+            value = value.add(box(evaluate(chain[next++])));
+        if (next == chain.length)
+            return value;
+        int base = operandCount;
+        int capacity = 0;
+        try {
+            for (int i = next; i < chain.length; i++) {
+                int tag = evaluate(chain[i]);
+                if (operandCount == operandTags.length) {
+                    operandTags = java.util.Arrays.copyOf(operandTags, operandCount * 2);
+                    operandWords = java.util.Arrays.copyOf(operandWords, operandCount * 2);
+                    operandReferences = java.util.Arrays.copyOf(operandReferences, operandCount * 2);
+                }
+                operandTags[operandCount] = tag;
+                operandWords[operandCount] = word;
+                operandReferences[operandCount] = reference;
+                operandCount++;
+                switch (tag) {
+                    case Tagged.INTEGER: capacity += 20; break;
+                    case Tagged.FLOAT: capacity += 24; break;
+                    case Tagged.BOOLEAN: capacity += 5; break;
+                    default:
+                        if (reference instanceof ValueString)
+                            capacity += ((ValueString)reference).length();
+                        else
+                            capacity += 16;
+                }
+            }
+            StringBuilder text = new StringBuilder(capacity);
+            for (int i = base; i < operandCount; i++) {
+                switch (operandTags[i]) {
+                    case Tagged.INTEGER: text.append(operandWords[i]); break;
+                    // As ValueFloat.stringValue() formats it, so fusing doesn't change the text.
+                    case Tagged.FLOAT: text.append(NumberFormatter.toString(Tagged.toDouble(operandWords[i]))); break;
+                    case Tagged.BOOLEAN: text.append(Tagged.toBoolean(operandWords[i])); break;
+                    default:
+                        if (operandReferences[i] instanceof ValueString)
+                            ((ValueString)operandReferences[i]).appendTo(text);
+                        else
+                            text.append(operandReferences[i].stringValue());
+                }
+            }
+            return ((ValueString)value).concat(text);
+        } finally {
+            java.util.Arrays.fill(operandReferences, base, operandCount, null);
+            operandCount = base;
+        }
+    }
+
+    // Specialised binary operator on two integers.
+    private int integerOperation(int operator, long left, long right) {
+        switch (operator) {
+            case ADD: word = left + right; return Tagged.INTEGER;
+            case SUBTRACT: word = left - right; return Tagged.INTEGER;
+            case TIMES: word = left * right; return Tagged.INTEGER;
+            case DIVIDE: word = left / right; return Tagged.INTEGER;
+            default: return comparison(operator, (left == right) ? 0 : (left > right) ? 1 : -1);
+        }
+    }
+
+    // Specialised binary operator on two floats.
+    private int floatOperation(int operator, double left, double right) {
+        switch (operator) {
+            case ADD: word = Tagged.fromDouble(left + right); return Tagged.FLOAT;
+            case SUBTRACT: word = Tagged.fromDouble(left - right); return Tagged.FLOAT;
+            case TIMES: word = Tagged.fromDouble(left * right); return Tagged.FLOAT;
+            case DIVIDE: word = Tagged.fromDouble(left / right); return Tagged.FLOAT;
+            default: return comparison(operator, (left == right) ? 0 : (left > right) ? 1 : -1);
+        }
+    }
+
+    // Result of a comparison operator, given the result of compare().
+    private int comparison(int operator, int compared) {
+        boolean result;
+        switch (operator) {
+            case EQUAL: result = (compared == 0); break;
+            case NOT_EQUAL: result = (compared != 0); break;
+            case GREATER_OR_EQUAL: result = (compared >= 0); break;
+            case LESS_OR_EQUAL: result = (compared <= 0); break;
+            case GREATER: result = (compared > 0); break;
+            default: result = (compared < 0); break;
+        }
+        word = Tagged.fromBoolean(result);
+        return Tagged.BOOLEAN;
+    }
+
+    // OR and AND, on primitive booleans where possible.
+    private int logical(SimpleNode node, boolean or) {
+        int leftTag = evaluate(node, 0);
+        long leftWord = word;
+        Value leftReference = reference;
+        int rightTag = evaluate(node, 1);
+        if (leftTag == Tagged.BOOLEAN && rightTag == Tagged.BOOLEAN) {
+            word = or ? (leftWord | word) : (leftWord & word);
+            return Tagged.BOOLEAN;
+        }
+        Value left = Tagged.box(leftTag, leftWord, leftReference);
+        return tag(or ? left.or(box(rightTag)) : left.and(box(rightTag)));
+    }
+
+    // NOT, on a primitive boolean where possible.
+    private int unaryNot(SimpleNode node) {
+        int tag = evaluate(node, 0);
+        if (tag == Tagged.BOOLEAN) {
+            word ^= 1;
+            return Tagged.BOOLEAN;
+        }
+        return tag(box(tag).not());
+    }
+
+    // Unary plus and minus, on primitive numbers where possible.
+    private int unary(SimpleNode node, boolean minus) {
+        int tag = evaluate(node, 0);
+        if (tag == Tagged.INTEGER) {
+            if (minus)
+                word = -word;
+            return Tagged.INTEGER;
+        }
+        if (tag == Tagged.FLOAT) {
+            if (minus)
+                word = Tagged.fromDouble(-Tagged.toDouble(word));
+            return Tagged.FLOAT;
+        }
+        Value v = box(tag);
+        return tag(minus ? v.unary_minus() : v.unary_plus());
+    }
+
     // OR - From Sili
     public Object visit(ASTOrExpression node, Object data) {
-        return doChild(node, 0).or(doChild(node, 1));
+        return box(logical(node, true));
     }
 
     // AND - From Sili
     public Object visit(ASTAndExpression node, Object data) {
-        return doChild(node, 0).and(doChild(node, 1));
+        return box(logical(node, false));
     }
 
     // == - From Sili
     public Object visit(ASTComparisonEqual node, Object data) {
-        return doChild(node, 0).eq(doChild(node, 1));
+        return box(binary(node, EQUAL));
     }
 
     // != - From Sili
     public Object visit(ASTComparisonNotEqualTo node, Object data) {
-        return doChild(node, 0).neq(doChild(node, 1));
+        return box(binary(node, NOT_EQUAL));
     }
 
     // >= - From Sili
     public Object visit(ASTComparisonGreatorThanOrEqualTo node, Object data) {
-        return doChild(node, 0).gte(doChild(node, 1));
+        return box(binary(node, GREATER_OR_EQUAL));
     }
 
     // <= - From Sili
     public Object visit(ASTComparisonLessThanOrEqualTo node, Object data) {
-        return doChild(node, 0).lte(doChild(node, 1));
+        return box(binary(node, LESS_OR_EQUAL));
     }
 
     // > - From Sili
     public Object visit(ASTComparisonGreatorThan node, Object data) {
-        return doChild(node, 0).gt(doChild(node, 1));
+        return box(binary(node, GREATER));
     }
 
     // < - From Sili
     public Object visit(ASTComparisonLessThan node, Object data) {
-        return doChild(node, 0).lt(doChild(node, 1));
+        return box(binary(node, LESS));
     }
 
     // + - From Sili
     public Object visit(ASTAddOperator node, Object data) {
-        return doChild(node, 0).add(doChild(node, 1));
+        return box(evaluate(node));
     }
 
     // - - From Sili
     public Object visit(ASTSubtractOperator node, Object data) {
-        return doChild(node, 0).subtract(doChild(node, 1));
+        return box(binary(node, SUBTRACT));
     }
 
     // * - From Sili
     public Object visit(ASTTimesOperator node, Object data) {
-        return doChild(node, 0).mult(doChild(node, 1));
+        return box(binary(node, TIMES));
     }
 
     // / - From Sili
     public Object visit(ASTDivideOperator node, Object data) {
-        return doChild(node, 0).div(doChild(node, 1));
+        return box(binary(node, DIVIDE));
     }
 
     // NOT - From Sili
     public Object visit(ASTUnaryNotOperator node, Object data) {
-        return doChild(node, 0).not();
+        return box(unaryNot(node));
     }
 
     // + (unary) - From Sili
     public Object visit(ASTUnaryPlusOperator node, Object data) {
-        return doChild(node, 0).unary_plus();
+        return box(unary(node, false));
     }
 
     // - (unary) - From Sili
     public Object visit(ASTUnaryMinusOperator node, Object data) {
-        return doChild(node, 0).unary_minus();
+        return box(unary(node, true));
     }
 
     // Return string literal - From Sili
     public Object visit(ASTCharacter node, Object data) {
-        if (node.optimised == null)
-            node.optimised = ValueString.stripDelimited(node.tokenValue);
-        return node.optimised;
+        return (node.optimised != null) ? node.optimised : ValueString.stripDelimited(node.tokenValue);
     }
 
     // Return integer literal - From Sili
     public Object visit(ASTInteger node, Object data) {
-        if (node.optimised == null)
-            node.optimised = new ValueInteger(Long.parseLong(node.tokenValue));
-        return node.optimised;
+        // The Optimiser has made the Value, unless the literal can't be represented.
+        return (node.optimised != null) ? node.optimised : ValueInteger.valueOf(Long.parseLong(node.tokenValue));
     }
 
     // Return floating point literal - From Sili
     public Object visit(ASTRational node, Object data) {
-        if (node.optimised == null)
-            node.optimised = new ValueFloat(Double.parseDouble(node.tokenValue));
-        return node.optimised;
+        return (node.optimised != null) ? node.optimised : ValueFloat.valueOf(Double.parseDouble(node.tokenValue));
     }
 
     // Return true literal - From Sili
     public Object visit(ASTTrue node, Object data) {
-        if (node.optimised == null)
-            node.optimised = new ValueBoolean(true);
-        return node.optimised;
+        return ValueBoolean.TRUE;
     }
 
     // Return false literal - From Sili
     public Object visit(ASTFalse node, Object data) {
-        if (node.optimised == null)
-            node.optimised = new ValueBoolean(false);
-        return node.optimised;
+        return ValueBoolean.FALSE;
     }
 }
@@ -1,10 +1,23 @@
 package intepreter;
 
+import java.io.PrintStream;
+
 import parser.ast.*;
 
 public class ParserDebugger implements JlangVisitor {
+    private final PrintStream out;
     private int indent = 0;
 
+    /** Ctor for a dump to stdout. */
+    public ParserDebugger() {
+        this(System.out);
+    }
+
+    /** Ctor for a dump to a given stream. */
+    public ParserDebugger(PrintStream out) {
+        this.out = out;
+    }
+
     private String indentString() {
         StringBuffer sb = new StringBuffer();
         for (int i = 0; i < indent; ++i) {
@@ -15,7 +28,7 @@ public class ParserDebugger implements JlangVisitor {
 
     /** Debugging dump of a node. */
     private Object dump(SimpleNode node, Object data) {
-        System.out.println(indentString() + node);
+        out.println(indentString() + node);
         ++indent;
         data = node.childrenAccept(this, data);
         --indent;
@@ -23,7 +36,7 @@ public class ParserDebugger implements JlangVisitor {
     }
 
     public Object visit(SimpleNode node, Object data) {
-        System.out.println(node + ": acceptor not implemented in subclass?");
+        out.println(node + ": acceptor not implemented in subclass?");
         return data;
     }
 
@@ -0,0 +1,269 @@
+package intepreter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import parser.ast.SimpleNode;
+import values.*;
+
+/** A run-time profile of a Jlang program.
+ *
+ * Nodes are identified by their preorder position in the AST, so a profile recorded
+ * by one run of a script can be reloaded by the next run of the same source.  Per node
+ * it records the observed operand types of binary operators, the number of times the
+ * node was executed, and how often each arm of an IF, loop or SWITCH was taken.
+ * Function call sites count their invocations, which identifies hot functions.  Branch and
+ * invocation counts are only of use saved, so only a profile with a source hash keeps them.
+ *
+ * A binary operator that has only ever seen one pair of operand types becomes
+ * specialised once it has been executed WARMUP times.  A profile loaded from disk
+ * therefore lets the specialised forms be used from the first iteration.
+ */
+
+class Profile {
+    // Operand type bits.
+    static final int TYPE_INTEGER = 1;
+    static final int TYPE_FLOAT = 2;
+    static final int TYPE_RATIONAL = 4;
+    static final int TYPE_STRING = 8;
+    static final int TYPE_BOOLEAN = 16;
+    static final int TYPE_OTHER = 32;
+
+    // Specialisations of binary operators.
+    static final int GENERIC = 0;
+    static final int INTEGER = 1;
+    static final int FLOAT = 2;
+
+    // Executions of a monomorphic node before it is specialised.
+    static final int WARMUP = 1000;
+
+    private static final int MAGIC = 0x4A4C5046;    // "JLPF"
+    private static final int VERSION = 1;
+
+    private final byte[] sourceHash;
+    // True if branches and invocations are counted.
+    private final boolean counting;
+    private int nodeCount;
+    private int[] types;
+    private long[] counts;
+    private long[][] arms;
+
+    /** Ctor for an empty profile of a program with a given source hash and node count.  The hash
+     * is null if the profile is not to be saved. */
+    Profile(byte[] hash, int count) {
+        sourceHash = hash;
+        counting = (hash != null);
+        nodeCount = count;
+        types = new int[count];
+        counts = new long[count];
+        arms = new long[count][];
+    }
+
+    /** Number the nodes of an AST in preorder, starting from first.  Return the next free number. */
+    static int number(SimpleNode node, int first) {
+        node.nodeIndex = first++;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++)
+            first = number((SimpleNode)node.jjtGetChild(i), first);
+        return first;
+    }
+
+    /** Cover at least count nodes, for a program that is numbered as it is parsed. */
+    void cover(int count) {
+        if (count <= nodeCount)
+            return;
+        int size = Math.max(count, 2 * nodeCount);
+        types = Arrays.copyOf(types, size);
+        counts = Arrays.copyOf(counts, size);
+        arms = Arrays.copyOf(arms, size);
+        nodeCount = size;
+    }
+
+    /** Forget what has been recorded of the nodes from first up to end, so they can be
+     * numbered again. */
+    void forget(int first, int end) {
+        Arrays.fill(types, first, end, 0);
+        Arrays.fill(counts, first, end, 0);
+        Arrays.fill(arms, first, end, null);
+    }
+
+    /** Return the SHA-256 hash of a program's source. */
+    static byte[] hash(ByteBuffer source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(source.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error(e.getMessage());
+        }
+    }
+
+    /** Return the type bit of a Value. */
+    static int typeOf(Value v) {
+        if (v instanceof ValueInteger)
+            return TYPE_INTEGER;
+        if (v instanceof ValueFloat)
+            return TYPE_FLOAT;
+        if (v instanceof ValueRational)
+            return TYPE_RATIONAL;
+        if (v instanceof ValueString)
+            return TYPE_STRING;
+        if (v instanceof ValueBoolean)
+            return TYPE_BOOLEAN;
+        return TYPE_OTHER;
+    }
+
+    /** Return the type bit of a value held in the Tagged primitive channels. */
+    static int typeOf(int tag, Value reference) {
+        switch (tag) {
+            case Tagged.INTEGER: return TYPE_INTEGER;
+            case Tagged.FLOAT: return TYPE_FLOAT;
+            case Tagged.BOOLEAN: return TYPE_BOOLEAN;
+            default: return typeOf(reference);
+        }
+    }
+
+    /** Get the number of nodes covered by this profile. */
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Get the number of times a node has been executed. */
+    long getCount(int node) {
+        return counts[node];
+    }
+
+    /** Get the number of times an arm of a branching node has been taken. */
+    long getArmCount(int node, int arm) {
+        long[] taken = arms[node];
+        return (taken == null || arm >= taken.length) ? 0 : taken[arm];
+    }
+
+    /** Record the operand types of a binary operator.  Return its specialisation. */
+    int operands(int node, int leftType, int rightType) {
+        types[node] |= leftType | (rightType << 8);
+        counts[node]++;
+        return specialisation(node);
+    }
+
+    /** Get the specialisation of a binary operator. */
+    int specialisation(int node) {
+        if (counts[node] < WARMUP)
+            return GENERIC;
+        switch (types[node]) {
+            case TYPE_INTEGER | (TYPE_INTEGER << 8):
+                return INTEGER;
+            case TYPE_FLOAT | (TYPE_FLOAT << 8):
+                return FLOAT;
+            default:
+                return GENERIC;
+        }
+    }
+
+    /** Record that a given arm of an IF, loop or SWITCH has been taken. */
+    void branch(int node, int arm) {
+        if (!counting)
+            return;
+        long[] taken = arms[node];
+        if (taken == null || arm >= taken.length) {
+            long[] grown = new long[arm + 1];
+            if (taken != null)
+                System.arraycopy(taken, 0, grown, 0, taken.length);
+            arms[node] = taken = grown;
+        }
+        taken[arm]++;
+        counts[node]++;
+    }
+
+    /** Record an invocation at a function call site. */
+    void invoked(int node) {
+        if (counting)
+            counts[node]++;
+    }
+
+    /** Return the profile file for a given source hash in a given directory. */
+    static File file(File directory, byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash)
+            name.append(String.format("%02x", b & 0xFF));
+        return new File(directory, name.append(".jprof").toString());
+    }
+
+    /** Load the profile of a program from a given directory.  If there is no profile, or it is stale,
+     * return an empty one.  A stale profile is deleted.
+     */
+    static Profile load(File directory, byte[] hash, int count) {
+        File file = file(directory, hash);
+        if (!file.exists())
+            return new Profile(hash, count);
+        Profile profile = new Profile(hash, count);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION)
+                throw new IOException("Not a profile.");
+            byte[] storedHash = new byte[hash.length];
+            in.readFully(storedHash);
+            if (!MessageDigest.isEqual(storedHash, hash) || in.readInt() != count)
+                throw new IOException("Profile is stale.");
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                int node = in.readInt();
+                if (node < 0 || node >= count)
+                    throw new IOException("Profile is corrupt.");
+                profile.counts[node] = in.readLong();
+                profile.types[node] = in.readInt();
+                int armCount = in.readShort();
+                if (armCount > 0) {
+                    profile.arms[node] = new long[armCount];
+                    for (int arm = 0; arm < armCount; arm++)
+                        profile.arms[node][arm] = in.readLong();
+                }
+            }
+            return profile;
+        } catch (IOException e) {
+            file.delete();
+            return new Profile(hash, count);
+        }
+    }
+
+    /** Save this profile to a given directory. */
+    void save(File directory) throws IOException {
+        directory.mkdirs();
+        int entries = 0;
+        for (int node = 0; node < nodeCount; node++)
+            if (counts[node] != 0)
+                entries++;
+        File temporary = File.createTempFile("jlang", ".jprof", directory);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.write(sourceHash);
+            out.writeInt(nodeCount);
+            out.writeInt(entries);
+            for (int node = 0; node < nodeCount; node++) {
+                if (counts[node] == 0)
+                    continue;
+                out.writeInt(node);
+                out.writeLong(counts[node]);
+                out.writeInt(types[node]);
+                long[] taken = arms[node];
+                out.writeShort((taken == null) ? 0 : taken.length);
+                if (taken != null)
+                    for (long n : taken)
+                        out.writeLong(n);
+            }
+        }
+        File file = file(directory, sourceHash);
+        file.delete();
+        if (!temporary.renameTo(file))
+            temporary.delete();
+    }
+}
@@ -0,0 +1,50 @@
+package intepreter;
+
+import parser.ast.ASTCode;
+import parser.ast.JlangVisitor;
+
+/** A compiled program: its AST, numbered and optimised.
+ *
+ * Compiling writes to the tree, and nothing after it does: what an execution binds nodes to
+ * is kept by its Parser, and what it counts by its Profile.  So once compiled, a Program may
+ * be executed any number of times, and by several threads at once, each execution with a
+ * Parser, Display, Profile, Output and Input of its own.
+ */
+
+final class Program {
+    private final ASTCode code;
+    private final int nodeCount;
+
+    private Program(ASTCode code, int nodeCount) {
+        this.code = code;
+        this.nodeCount = nodeCount;
+    }
+
+    /** Compile a parsed program.  The tree is not to be changed afterwards. */
+    static Program compile(ASTCode code) {
+        int nodeCount = Profile.number(code, 0);
+        Optimiser.optimise(code);
+        return new Program(code, nodeCount);
+    }
+
+    /** Get the AST. */
+    ASTCode getCode() {
+        return code;
+    }
+
+    /** Get the number of nodes, which is the size of a Profile of an execution. */
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    /** Execute this program with a given visitor, normally a new Parser. */
+    void execute(JlangVisitor visitor) {
+        code.jjtAccept(visitor, null);
+    }
+
+    /** Execute this program's top-level statements from a given one on. */
+    void execute(JlangVisitor visitor, int first) {
+        for (int i = first; i < code.jjtGetNumChildren(); i++)
+            code.jjtGetChild(i).jjtAccept(visitor, null);
+    }
+}
@@ -0,0 +1,57 @@
+package intepreter;
+
+import java.io.File;
+import java.io.IOException;
+
+import parser.ast.ASTCode;
+import parser.ast.FlatTree;
+import parser.ast.SimpleNode;
+
+/** A cache of parsed programs, so that an unchanged source need not be lexed and parsed again.
+ *
+ * A program is saved as its FlatTree, in a file named after the SHA-256 hash of its source.
+ * The file is a CheckedFile, whose header records the format version, the node kinds of the
+ * grammar it was parsed with, the source hash and a CRC of the tree, and is checked before the
+ * tree is used; the tree itself is checked as it is decoded.  A file that fails any check is deleted, and the
+ * program is parsed from source as if it were not cached.
+ *
+ * Only the tree is cached.  What Optimiser records refers to nodes, not to anything that can
+ * be saved, and it is recomputed in a single pass over the loaded tree.
+ */
+
+class ProgramCache {
+    // "JLPC", version 1.
+    private static final CheckedFile FORMAT = new CheckedFile(0x4A4C5043, 1, "cached program");
+
+    /** Return the cache file for a given source hash in a given directory. */
+    static File file(File directory, byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash)
+            name.append(String.format("%02x", b & 0xFF));
+        return new File(directory, name.append(".jlpc").toString());
+    }
+
+    /** Load the program with a given source hash from a given directory.  If it is not cached, or the
+     * cached copy is unusable, return null.  An unusable copy is deleted.
+     */
+    static ASTCode load(File directory, byte[] hash) {
+        File file = file(directory, hash);
+        if (!file.exists())
+            return null;
+        try {
+            SimpleNode root = FlatTree.decode(FORMAT.read(file.toPath(), hash)).toTree();
+            if (!(root instanceof ASTCode))
+                throw new IOException("Cached program is corrupt.");
+            return (ASTCode)root;
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /** Save a program with a given source hash to a given directory. */
+    static void save(File directory, byte[] hash, ASTCode program) throws IOException {
+        directory.mkdirs();
+        FORMAT.write(file(directory, hash).toPath(), hash, FlatTree.of(program).encode());
+    }
+}
@@ -0,0 +1,167 @@
+package intepreter;
+
+import java.io.StringReader;
+
+import parser.ast.*;
+
+/** An interactive session, which reads statements a line at a time and executes each input
+ * as soon as it is complete.
+ *
+ * One Parser executes every input, so variables and functions defined by one are visible
+ * to the next, and function bodies keep their profile and what has been optimised in them.
+ * An input is complete when it parses.  One that is cut short by the end of its text is
+ * continued by the next line, and an IF without an ELSE waits for one more line, which may
+ * start with ELSEIF or ELSE.  An error is reported, and the session goes on from the state
+ * the failed input left.
+ *
+ * Lines are normally read from the Input of the read builtins, so a read in an input reads
+ * the lines that follow it.
+ */
+
+class Repl {
+    private static final String PROMPT = "> ";
+    private static final String CONTINUATION = "... ";
+
+    private final Output output;
+    private final Input lines;
+    private final Parser parser;
+    private final StatementRunner runner;
+    // Prompt only a terminal.
+    private final boolean prompting;
+    // A line read but not yet used.
+    private String pending = null;
+
+    /** Ctor for a session of a run with given streams that reads statements from lines, executes
+     * them with the read builtins reading from input and WRITE writing to output, and dumps the AST
+     * of each input instead of executing it if debugAST is true. */
+    Repl(Streams streams, Output output, Input lines, Input input, boolean debugAST) {
+        this.output = output;
+        this.lines = lines;
+        prompting = streams.terminal;
+        Profile profile = new Profile(null, 0);
+        parser = new Parser(profile, output, input);
+        runner = new StatementRunner(profile, debugAST ? new ParserDebugger(streams.messages) : parser);
+    }
+
+    /** Execute a program read from tokens, as the first input. */
+    void load(JlangTokenManager tokens) {
+        try {
+            new StreamingJlang(tokens, runner).code();
+        } catch (Throwable e) {
+            parser.recover();
+            report(e.getMessage());
+        }
+        output.flush();
+    }
+
+    /** Read and execute inputs until the end of input. */
+    void run() {
+        StringBuilder source = new StringBuilder();
+        String line;
+        while ((line = readLine(source.length() == 0 ? PROMPT : CONTINUATION)) != null) {
+            source.append(line).append('\n');
+            ASTCode code = complete(source);
+            if (code == null)
+                continue;
+            if (awaitsElse(code)) {
+                // Execute the IF once the next line shows that it has no more arms.
+                String next = readLine(CONTINUATION);
+                if (next != null && continuesIf(next)) {
+                    source.append(next).append('\n');
+                    continue;
+                }
+                pending = next;
+            }
+            execute(code);
+            source.setLength(0);
+        }
+        if (source.length() > 0)
+            execute(source.toString());
+    }
+
+    // Read a line, prompting for it with prompt.  Return null at the end of input.
+    private String readLine(String prompt) {
+        if (pending != null) {
+            String line = pending;
+            pending = null;
+            return line;
+        }
+        if (prompting) {
+            output.print(prompt);
+            output.flush();
+        }
+        return lines.eof() ? null : lines.readLine();
+    }
+
+    // Parse an input.  Return its tree if it is complete, or null if it needs more lines.  An
+    // input that can't be completed is reported and forgotten, as is one that is only blanks
+    // and comments.
+    private ASTCode complete(StringBuilder source) {
+        try {
+            return parse(source.toString());
+        } catch (ParseException e) {
+            boolean empty = e.currentToken.beginLine == 0;
+            if (!atEnd(e) || empty) {
+                if (!empty)
+                    report(e.getMessage());
+                source.setLength(0);
+            }
+        } catch (TokenMgrError e) {
+            if (!e.getMessage().contains("<EOF>")) {
+                report(e.getMessage());
+                source.setLength(0);
+            }
+        }
+        return null;
+    }
+
+    private static ASTCode parse(String source) throws ParseException {
+        return new Jlang(new JlangLexer(new SimpleCharStream(new StringReader(source)))).code();
+    }
+
+    // True if a ParseException was at the end of the input.
+    private static boolean atEnd(ParseException e) {
+        return e.currentToken.next != null && e.currentToken.next.kind == JlangConstants.EOF;
+    }
+
+    // True if the last statement of an input is an IF without an ELSE.
+    private static boolean awaitsElse(ASTCode code) {
+        Node last = code.jjtGetChild(code.jjtGetNumChildren() - 1).jjtGetChild(0);
+        return last instanceof ASTIfStatement && !((ASTIfStatement)last).ifHasElse;
+    }
+
+    // True if a line starts with ELSEIF or ELSE.
+    private static boolean continuesIf(String line) {
+        try {
+            Token first = new JlangLexer(new SimpleCharStream(new StringReader(line))).getNextToken();
+            return first.kind == JlangConstants.ELSEIF || first.kind == JlangConstants.ELSE;
+        } catch (TokenMgrError e) {
+            return false;
+        }
+    }
+
+    private void execute(String source) {
+        try {
+            execute(parse(source));
+        } catch (ParseException | TokenMgrError e) {
+            report(e.getMessage());
+        }
+    }
+
+    // Execute the statements of an input, up to the first that fails.
+    private void execute(ASTCode code) {
+        try {
+            for (int i = 0; i < code.jjtGetNumChildren(); i++)
+                runner.accept((ASTStatement)code.jjtGetChild(i));
+        } catch (Throwable e) {
+            parser.recover();
+            report(e.getMessage());
+        }
+        output.flush();
+    }
+
+    private void report(String message) {
+        output.println(message);
+        output.flush();
+    }
+}
@@ -0,0 +1,242 @@
+package intepreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import parser.ast.ASTCode;
+import parser.ast.ASTFnBody;
+import parser.ast.FlatTree;
+import parser.ast.SimpleNode;
+import values.Value;
+import values.ValueBoolean;
+import values.ValueFloat;
+import values.ValueInteger;
+import values.ValueRational;
+import values.ValueString;
+
+/** The state of a program after its prologue, saved by the snapshot() builtin, so that later
+ * runs of the same source can restore it instead of executing the prologue again.
+ *
+ * snapshot() is a top-level statement.  When it is executed, what the program has made so far
+ * is saved: its tree, the variables of the main program and their values, and every function
+ * defined, with its parameters, locals and inner functions.  A later run with the same -z file
+ * maps the file, compiles the saved tree, restores the variables and functions, and executes
+ * the program from the statement after snapshot().  What the prologue wrote is not written
+ * again, and what it read is not read again.
+ *
+ * The file is a CheckedFile, as a cached program is, so a snapshot of a different source or
+ * grammar, or a damaged one, is deleted and the program is run from the start, to save a new
+ * snapshot.  After the header come the tree as its length and FlatTree, the number of the top-level
+ * statement that took the snapshot, the main program as a function definition, and the values
+ * of its slots.  A definition is its name, level, the node numbers of its body and return
+ * expression (or -1), its parameter count, the names of its slots in slot order, then its inner
+ * definitions.
+ */
+
+class Snapshot {
+    // "JLSS", version 1.
+    private static final CheckedFile FORMAT = new CheckedFile(0x4A4C5353, 1, "snapshot");
+
+    // Tags of the values of slots.
+    private static final int NONE = 0;
+    private static final int INTEGER = 1;
+    private static final int FLOAT = 2;
+    private static final int RATIONAL = 3;
+    private static final int STRING = 4;
+    private static final int BOOLEAN = 5;
+
+    /** A restored program, and where it is to be resumed. */
+    static class State {
+        final Program program;
+        /** The invocation of the main program, with its variables and functions. */
+        final FunctionInvocation main;
+        /** The top-level statement that took the snapshot. */
+        final int statement;
+
+        State(Program program, FunctionInvocation main, int statement) {
+            this.program = program;
+            this.main = main;
+            this.statement = statement;
+        }
+    }
+
+    private final Path file;
+    private final byte[] hash;
+    private final Program program;
+    private final PrintStream err;
+
+    /** Ctor for the snapshot, in file, of a program with a given source hash.  Failure to save it
+     * is reported on err. */
+    Snapshot(Path file, byte[] hash, Program program, PrintStream err) {
+        this.file = file;
+        this.hash = hash;
+        this.program = program;
+        this.err = err;
+    }
+
+    /** Save the state of the main program, taken by a given top-level statement. */
+    void save(FunctionInvocation main, int statement) {
+        try {
+            ByteBuffer tree = FlatTree.of(program.getCode()).encode();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(tree.remaining());
+            out.write(tree.array(), tree.arrayOffset() + tree.position(), tree.remaining());
+            out.writeInt(statement);
+            writeDefinition(out, main.getFunction());
+            out.writeInt(main.getSlotCount());
+            for (int i = 0; i < main.getSlotCount(); i++)
+                writeValue(out, main.getValue(i));
+            FORMAT.write(file, hash, ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException e) {
+            err.println("Unable to save snapshot: " + e.getMessage());
+        }
+    }
+
+    private static void writeDefinition(DataOutputStream out, FunctionDefinition definition) throws IOException {
+        writeString(out, definition.getName());
+        out.writeInt(definition.getLevel());
+        out.writeInt(nodeIndex(definition.getFunctionBody()));
+        out.writeInt(nodeIndex(definition.getFunctionReturnExpression()));
+        out.writeInt(definition.getParameterCount());
+        String[] names = definition.getLocalNames();
+        out.writeInt(names.length);
+        for (String name : names)
+            writeString(out, name);
+        FunctionDefinition[] functions = definition.getFunctions();
+        out.writeInt(functions.length);
+        for (FunctionDefinition function : functions)
+            writeDefinition(out, function);
+    }
+
+    private static int nodeIndex(SimpleNode node) {
+        return (node == null) ? -1 : node.nodeIndex;
+    }
+
+    private static void writeValue(DataOutputStream out, Value v) throws IOException {
+        if (v instanceof ValueInteger) {
+            out.writeByte(INTEGER);
+            out.writeLong(v.longValue());
+        } else if (v instanceof ValueFloat) {
+            out.writeByte(FLOAT);
+            out.writeDouble(v.doubleValue());
+        } else if (v instanceof ValueRational) {
+            out.writeByte(RATIONAL);
+            out.writeDouble(v.doubleValue());
+        } else if (v instanceof ValueString) {
+            out.writeByte(STRING);
+            writeString(out, v.stringValue());
+        } else if (v instanceof ValueBoolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(v.booleanValue());
+        } else
+            out.writeByte(NONE);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Restore the snapshot of the program with a given source hash from file.  If there is no
+     * snapshot, or it is unusable, return null.  An unusable snapshot is deleted. */
+    static State load(Path file, byte[] hash) {
+        if (!Files.exists(file))
+            return null;
+        try {
+            ByteBuffer bytes = FORMAT.read(file, hash);
+            int treeLength = bytes.getInt();
+            ByteBuffer tree = bytes.slice().limit(treeLength);
+            bytes.position(bytes.position() + treeLength);
+            SimpleNode root = FlatTree.decode(tree).toTree();
+            if (!(root instanceof ASTCode))
+                throw new IOException("Snapshot is corrupt.");
+            Program program = Program.compile((ASTCode)root);
+            SimpleNode[] nodes = new SimpleNode[program.getNodeCount()];
+            index(root, nodes);
+            int statement = bytes.getInt();
+            if (statement < 0 || statement >= root.jjtGetNumChildren())
+                throw new IOException("Snapshot is corrupt.");
+            FunctionInvocation main = new FunctionInvocation(readDefinition(bytes, nodes));
+            int slotCount = bytes.getInt();
+            if (slotCount > main.getFunction().getLocalCount())
+                throw new IOException("Snapshot is corrupt.");
+            for (int i = 0; i < slotCount; i++)
+                main.setValue(i, readValue(bytes));
+            return new State(program, main, statement);
+        } catch (IOException | RuntimeException | ExceptionSemantic e) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e2) {
+                // It will be replaced by the next snapshot.
+            }
+            return null;
+        }
+    }
+
+    // Set nodes[i] to the node numbered i, for each node under node.
+    private static void index(SimpleNode node, SimpleNode[] nodes) {
+        nodes[node.nodeIndex] = node;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++)
+            index((SimpleNode)node.jjtGetChild(i), nodes);
+    }
+
+    private static FunctionDefinition readDefinition(ByteBuffer in, SimpleNode[] nodes) throws IOException {
+        FunctionDefinition definition = new FunctionDefinition(readString(in), in.getInt());
+        SimpleNode body = readNode(in, nodes);
+        if (body != null && !(body instanceof ASTFnBody))
+            throw new IOException("Snapshot is corrupt.");
+        definition.setFunctionBody(body);
+        definition.setFunctionReturnExpression(readNode(in, nodes));
+        int parameterCount = in.getInt();
+        int localCount = in.getInt();
+        if (parameterCount < 0 || parameterCount > localCount)
+            throw new IOException("Snapshot is corrupt.");
+        for (int i = 0; i < localCount; i++) {
+            String name = readString(in);
+            if (i < parameterCount)
+                definition.defineParameter(name);
+            else if (definition.defineVariable(name) != i)
+                throw new IOException("Snapshot is corrupt.");
+        }
+        int functionCount = in.getInt();
+        for (int i = 0; i < functionCount; i++)
+            definition.addFunction(readDefinition(in, nodes));
+        return definition;
+    }
+
+    // Read a node number, and return the node, or null if it is -1.
+    private static SimpleNode readNode(ByteBuffer in, SimpleNode[] nodes) throws IOException {
+        int index = in.getInt();
+        if (index == -1)
+            return null;
+        if (index < 0 || index >= nodes.length)
+            throw new IOException("Snapshot is corrupt.");
+        return nodes[index];
+    }
+
+    private static Value readValue(ByteBuffer in) throws IOException {
+        switch (in.get()) {
+            case NONE: return null;
+            case INTEGER: return ValueInteger.valueOf(in.getLong());
+            case FLOAT: return ValueFloat.valueOf(in.getDouble());
+            case RATIONAL: return ValueRational.valueOf(in.getDouble());
+            case STRING: return ValueString.valueOf(readString(in));
+            case BOOLEAN: return ValueBoolean.valueOf(in.get() != 0);
+            default: throw new IOException("Snapshot is corrupt.");
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+package intepreter;
+
+import java.util.function.Consumer;
+
+import parser.ast.*;
+
+/** Runs the top-level statements of a program one at a time, as a StreamingJlang parses them.
+ *
+ * Each statement is numbered, optimised and executed, then dropped.  Its node numbers are
+ * given to the next statement unless it defines a function, whose body outlives it, so the
+ * profile grows only with the function definitions.
+ */
+
+class StatementRunner implements Consumer<ASTStatement> {
+    private final Profile profile;
+    private final JlangVisitor visitor;
+    // The first node number not held by a function definition.
+    private int next = 0;
+
+    /** Ctor for a runner that executes statements with visitor, recording into profile. */
+    StatementRunner(Profile profile, JlangVisitor visitor) {
+        this.profile = profile;
+        this.visitor = visitor;
+    }
+
+    /** Execute a top-level statement. */
+    public void accept(ASTStatement statement) {
+        int end = Profile.number(statement, next);
+        profile.cover(end);
+        try {
+            Optimiser.optimise(statement);
+            statement.jjtAccept(visitor, null);
+        } finally {
+            // Also if it fails, when what follows may still be executed.
+            if (definesFunction(statement))
+                next = end;
+            else {
+                profile.forget(next, end);
+                if (visitor instanceof Parser)
+                    ((Parser)visitor).forget(next, end);
+            }
+        }
+    }
+
+    // True if a node is or contains a function definition.
+    private static boolean definesFunction(SimpleNode node) {
+        if (node instanceof ASTFnDef)
+            return true;
+        for (int i = 0; i < node.jjtGetNumChildren(); i++)
+            if (definesFunction((SimpleNode)node.jjtGetChild(i)))
+                return true;
+        return false;
+    }
+}
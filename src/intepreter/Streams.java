@@ -0,0 +1,86 @@
+package intepreter;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/** The standard streams and working directory of one run of the interpreter.
+ *
+ * A run from the command line has those of the process.  A run served by Daemon has those
+ * of its client, so that several can run at once in one JVM without sharing any.
+ */
+
+class Streams {
+    /** stdin, which is the source when no <source> is given. */
+    final InputStream in;
+    /** stdout, as a channel for Output. */
+    final WritableByteChannel out;
+    /** The encoding of stdout. */
+    final Charset charset;
+    /** stdout, for messages about the run rather than from the program. */
+    final PrintStream messages;
+    /** stderr. */
+    final PrintStream err;
+    /** True if stdout is a terminal. */
+    final boolean terminal;
+    private final Path directory;
+
+    /** Ctor for a run with given streams, with relative file names resolved against directory. */
+    Streams(InputStream in, WritableByteChannel out, Charset charset, PrintStream messages, PrintStream err,
+            boolean terminal, Path directory) {
+        this.in = in;
+        this.out = out;
+        this.charset = charset;
+        this.messages = messages;
+        this.err = err;
+        this.terminal = terminal;
+        this.directory = directory;
+    }
+
+    /** Return the streams of this process, encoded as System.out would be. */
+    static Streams process() {
+        String encoding = System.getProperty("sun.stdout.encoding");
+        Charset charset = (encoding != null) ? Charset.forName(encoding) : Charset.defaultCharset();
+        return new Streams(new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out).getChannel(),
+                charset, System.out, System.err, isTerminal(), Paths.get(""));
+    }
+
+    /** Return true if the stdout of this process is a terminal, or if that can't be told.
+     *
+     * System.console() is null unless stdin is a terminal too, so `jlang < script` on a terminal
+     * would seem not to be on one.  On Linux, the file that stdout is open on says; elsewhere,
+     * test(1) is asked, with our stdout as its own.
+     */
+    static boolean isTerminal() {
+        if (System.console() != null)
+            return true;
+        try {
+            String target = Files.readSymbolicLink(Paths.get("/proc/self/fd/1")).toString();
+            return target.startsWith("/dev/pts/") || target.startsWith("/dev/tty") || target.equals("/dev/console");
+        } catch (IOException | UnsupportedOperationException e) {
+            // No /proc.
+        }
+        try {
+            Process test = new ProcessBuilder("test", "-t", "1").redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+            return test.waitFor() == 0;
+        } catch (IOException e) {
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    /** Return the path of a file named relative to the working directory. */
+    Path resolve(String name) {
+        return directory.resolve(name);
+    }
+}
@@ -0,0 +1,305 @@
+package parser.ast;
+
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Constructor;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/** An AST flattened into arrays, one entry per node, in preorder.
+ *
+ * A node is an index: the root is 0, and a node's index is the number Profile.number() gives
+ * it.  Per node there is its kind, one of JlangTreeConstants, its first child and next
+ * sibling (or -1), its literal (an index into a pool of distinct token values, or -1), and
+ * its flags.  That is 17 bytes a node, against an object, a child array and their headers,
+ * and walking the arrays in order walks the tree in order.
+ *
+ * encode() and decode() convert it to and from bytes: the node count and pool size, the four
+ * int arrays and the flags, then each token value as its length and UTF-8 bytes.
+ */
+
+public final class FlatTree implements JlangTreeConstants {
+    /** Flags. */
+    public static final int IF_HAS_ELSE = 1;
+    public static final int IF_HAS_ELSE_IF = 2;
+    public static final int SWITCH_HAS_DEFAULT = 4;
+    public static final int FN_HAS_RETURN = 8;
+
+    private final int[] kinds;
+    private final int[] firstChildren;
+    private final int[] nextSiblings;
+    private final int[] literals;
+    private final byte[] flags;
+    private final String[] pool;
+
+    /** Ctor for a tree from its arrays, which are not copied. */
+    public FlatTree(int[] kinds, int[] firstChildren, int[] nextSiblings, int[] literals, byte[] flags,
+                    String[] pool) {
+        this.kinds = kinds;
+        this.firstChildren = firstChildren;
+        this.nextSiblings = nextSiblings;
+        this.literals = literals;
+        this.flags = flags;
+        this.pool = pool;
+    }
+
+    /** Flatten the tree under root. */
+    public static FlatTree of(SimpleNode root) {
+        int size = count(root);
+        int[] kinds = new int[size];
+        int[] firstChildren = new int[size];
+        int[] nextSiblings = new int[size];
+        int[] literals = new int[size];
+        byte[] flags = new byte[size];
+        Map<String, Integer> indices = new HashMap<String, Integer>();
+        // The last child of each node so far, and the nodes still to visit with their parents.
+        int[] lastChildren = new int[size];
+        SimpleNode[] stack = new SimpleNode[16];
+        int[] parents = new int[16];
+        int top = 0;
+        stack[top] = root;
+        parents[top++] = -1;
+        for (int i = 0; top > 0; i++) {
+            SimpleNode node = stack[--top];
+            int parent = parents[top];
+            kinds[i] = node.getId();
+            firstChildren[i] = nextSiblings[i] = lastChildren[i] = -1;
+            if (parent >= 0) {
+                if (lastChildren[parent] < 0)
+                    firstChildren[parent] = i;
+                else
+                    nextSiblings[lastChildren[parent]] = i;
+                lastChildren[parent] = i;
+            }
+            if (node.tokenValue == null)
+                literals[i] = -1;
+            else {
+                Integer index = indices.get(node.tokenValue);
+                if (index == null)
+                    indices.put(node.tokenValue, index = indices.size());
+                literals[i] = index;
+            }
+            flags[i] = (byte)((node.ifHasElse ? IF_HAS_ELSE : 0) | (node.ifHasElseIf ? IF_HAS_ELSE_IF : 0)
+                    | (node.switchHasDefault ? SWITCH_HAS_DEFAULT : 0) | (node.fnHasReturn ? FN_HAS_RETURN : 0));
+            int children = node.jjtGetNumChildren();
+            if (top + children > stack.length) {
+                int length = Math.max(2 * stack.length, top + children);
+                stack = Arrays.copyOf(stack, length);
+                parents = Arrays.copyOf(parents, length);
+            }
+            // Push the last child first, so the first is visited next.
+            for (int c = children - 1; c >= 0; c--) {
+                stack[top] = (SimpleNode)node.jjtGetChild(c);
+                parents[top++] = i;
+            }
+        }
+        String[] pool = new String[indices.size()];
+        for (Map.Entry<String, Integer> entry : indices.entrySet())
+            pool[entry.getValue()] = entry.getKey();
+        return new FlatTree(kinds, firstChildren, nextSiblings, literals, flags, pool);
+    }
+
+    // The number of nodes under root, including root.
+    private static int count(SimpleNode root) {
+        int count = 0;
+        Node[] stack = new Node[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            Node node = stack[--top];
+            count++;
+            int children = node.jjtGetNumChildren();
+            if (top + children > stack.length)
+                stack = Arrays.copyOf(stack, Math.max(2 * stack.length, top + children));
+            for (int c = 0; c < children; c++)
+                stack[top++] = node.jjtGetChild(c);
+        }
+        return count;
+    }
+
+    // Constructors of the node classes, by kind.
+    private static final Constructor<?>[] constructors = new Constructor<?>[jjtNodeName.length];
+
+    // A new node of a kind.
+    private static SimpleNode newNode(int kind) {
+        try {
+            Constructor<?> constructor = constructors[kind];
+            if (constructor == null)
+                constructors[kind] = constructor =
+                        Class.forName("parser.ast.AST" + jjtNodeName[kind]).getConstructor(int.class);
+            return (SimpleNode)constructor.newInstance(kind);
+        } catch (ReflectiveOperationException e) {
+            throw new Error("No node class for " + jjtNodeName[kind] + ": " + e);
+        }
+    }
+
+    /** Rebuild the tree of SimpleNodes, and return its root. */
+    public SimpleNode toTree() {
+        int size = kinds.length;
+        SimpleNode[] nodes = new SimpleNode[size];
+        for (int i = 0; i < size; i++) {
+            SimpleNode node = newNode(kinds[i]);
+            if (literals[i] >= 0)
+                node.tokenValue = pool[literals[i]];
+            node.ifHasElse = (flags[i] & IF_HAS_ELSE) != 0;
+            node.ifHasElseIf = (flags[i] & IF_HAS_ELSE_IF) != 0;
+            node.switchHasDefault = (flags[i] & SWITCH_HAS_DEFAULT) != 0;
+            node.fnHasReturn = (flags[i] & FN_HAS_RETURN) != 0;
+            nodes[i] = node;
+        }
+        int[] children = new int[16];
+        for (int i = 0; i < size; i++) {
+            int count = 0;
+            for (int c = firstChildren[i]; c >= 0; c = nextSiblings[c]) {
+                if (count == children.length)
+                    children = Arrays.copyOf(children, 2 * count);
+                children[count++] = c;
+            }
+            // Add the last child first, as jjtree does, so the array of children is made once.
+            while (count > 0) {
+                SimpleNode child = nodes[children[--count]];
+                child.jjtSetParent(nodes[i]);
+                nodes[i].jjtAddChild(child, count);
+            }
+        }
+        return (size == 0) ? null : nodes[0];
+    }
+
+    /** Get the number of nodes. */
+    public int size() {
+        return kinds.length;
+    }
+
+    /** Get the kind of a node, one of JlangTreeConstants. */
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    /** Get the first child of a node, or -1 if it has none. */
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    /** Get the next sibling of a node, or -1 if it is the last child. */
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    /** Get the number of children of a node. */
+    public int childCount(int node) {
+        int count = 0;
+        for (int c = firstChildren[node]; c >= 0; c = nextSiblings[c])
+            count++;
+        return count;
+    }
+
+    /** Get the token value of a node, or null if it has none. */
+    public String literal(int node) {
+        return (literals[node] < 0) ? null : pool[literals[node]];
+    }
+
+    /** Get the index of a node's token value in the literal pool, or -1 if it has none. */
+    public int literalIndex(int node) {
+        return literals[node];
+    }
+
+    /** Get the flags of a node. */
+    public int flags(int node) {
+        return flags[node];
+    }
+
+    /** Get the pool of distinct token values. */
+    public String[] pool() {
+        return pool;
+    }
+
+    /** Encode this tree as bytes, from position 0 to the limit of the buffer returned. */
+    public ByteBuffer encode() {
+        int size = kinds.length;
+        byte[][] values = new byte[pool.length][];
+        long length = 8 + 17L * size;
+        for (int i = 0; i < pool.length; i++) {
+            values[i] = pool[i].getBytes(StandardCharsets.UTF_8);
+            length += 4 + values[i].length;
+        }
+        if (length > Integer.MAX_VALUE)
+            throw new IllegalStateException("Tree too large to encode.");
+        ByteBuffer bytes = ByteBuffer.allocate((int)length);
+        bytes.putInt(size).putInt(pool.length);
+        for (int[] array : new int[][] { kinds, firstChildren, nextSiblings, literals }) {
+            bytes.asIntBuffer().put(array);
+            bytes.position(bytes.position() + 4 * size);
+        }
+        bytes.put(flags);
+        for (byte[] value : values)
+            bytes.putInt(value.length).put(value);
+        bytes.flip();
+        return bytes;
+    }
+
+    /** Decode a tree encoded by encode() from bytes, from position to limit.  Every link
+     * is checked, so what is decoded is a tree of known kinds, whatever the bytes. */
+    public static FlatTree decode(ByteBuffer bytes) throws StreamCorruptedException {
+        try {
+            int size = bytes.getInt();
+            int poolSize = bytes.getInt();
+            if (size < 1 || poolSize < 0 || size > bytes.remaining() / 17)
+                throw new StreamCorruptedException("Bad tree size.");
+            int[][] arrays = new int[4][size];
+            for (int[] array : arrays) {
+                bytes.asIntBuffer().get(array);
+                bytes.position(bytes.position() + 4 * size);
+            }
+            byte[] flags = new byte[size];
+            bytes.get(flags);
+            if (poolSize > bytes.remaining() / 4)
+                throw new StreamCorruptedException("Bad pool size.");
+            String[] pool = new String[poolSize];
+            for (int i = 0; i < poolSize; i++) {
+                int length = bytes.getInt();
+                if (length < 0 || length > bytes.remaining())
+                    throw new StreamCorruptedException("Bad token value.");
+                byte[] value = new byte[length];
+                bytes.get(value);
+                pool[i] = new String(value, StandardCharsets.UTF_8);
+            }
+            if (bytes.hasRemaining())
+                throw new StreamCorruptedException("Trailing bytes.");
+            FlatTree tree = new FlatTree(arrays[0], arrays[1], arrays[2], arrays[3], flags, pool);
+            tree.check();
+            return tree;
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("Truncated tree.");
+        }
+    }
+
+    // Check that the arrays form a tree in preorder, rooted at 0, of known kinds and values.
+    private void check() throws StreamCorruptedException {
+        int size = kinds.length;
+        // Siblings still to visit, of the node being visited and its ancestors.
+        int[] pending = new int[size];
+        int top = 0;
+        if (nextSiblings[0] != -1)
+            throw new StreamCorruptedException("Root has a sibling.");
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] < 0 || kinds[i] >= jjtNodeName.length || kinds[i] == JJTVOID)
+                throw new StreamCorruptedException("Bad node kind.");
+            if (literals[i] < -1 || literals[i] >= pool.length)
+                throw new StreamCorruptedException("Bad literal.");
+            int sibling = nextSiblings[i];
+            if (sibling < -1 || sibling >= size)
+                throw new StreamCorruptedException("Bad sibling.");
+            if (sibling >= 0)
+                pending[top++] = sibling;
+            // The next node in preorder is the first child, else the nearest pending sibling.
+            int next = firstChildren[i];
+            if (next == -1)
+                next = (top > 0) ? pending[--top] : size;
+            if (next != i + 1)
+                throw new StreamCorruptedException("Nodes out of order.");
+        }
+    }
+}
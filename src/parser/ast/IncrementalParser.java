@@ -0,0 +1,420 @@
+package parser.ast;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A source and its tree, which is brought up to date after each edit of the source by
+ * reparsing only the smallest statement that contains the edit.
+ *
+ * Each statement's node records its extent in its value, as three ints: the chars from the
+ * end of the previous statement in the same enclosing statement (or from the start of the
+ * enclosing statement, or of the source) to its first token, its length up to the end of its
+ * last token, and the chars from there to the token that follows it.  So an edit changes
+ * only the lengths of the statements that contain it, and the extents of the rest of the
+ * source stay as they are.  The offsets of the top-level statements are kept as well, so
+ * the one that contains an edit can be found without walking those before it.
+ *
+ * A statement that contains an edit, after its first char, is parsed again from its start.
+ * statement() doesn't depend on what encloses it, and no token that can start a statement
+ * can continue one, so if it ends just before the token that followed it before, shifted by
+ * the edit, it is the statement a parse of the whole source would give there, and replaces
+ * the old one.  Otherwise the statement enclosing it is tried, and so on.  If no statement
+ * contains the edit, top-level statements are parsed again from the last that starts before
+ * it, until one ends before a top-level statement that follows the edit, which with all after
+ * it is kept.  If that fails too, the whole source is parsed, for its error.
+ */
+
+public class IncrementalParser {
+    private final StringBuilder text;
+    private ASTCode tree;
+    // The offsets of the top-level statements.
+    private int[] begins;
+    // The chars parsed again by the last parse or edit.
+    private int reparsed;
+
+    /** Ctor for a parser of source, which is parsed at once. */
+    public IncrementalParser(CharSequence source) throws ParseException {
+        text = new StringBuilder(source);
+        parseAll();
+    }
+
+    /** Get the tree of the source, or null if the last edit left it unparsable. */
+    public ASTCode getTree() {
+        return tree;
+    }
+
+    /** Get the source. */
+    public String getText() {
+        return text.toString();
+    }
+
+    /** Get the number of chars parsed again by the last edit. */
+    public int getReparsedLength() {
+        return reparsed;
+    }
+
+    /** Replace the length chars at offset by replacement, and return the tree brought up to date.
+     * If the source can't be parsed, the edit is still made, and the tree is null until an edit
+     * makes it parsable again. */
+    public ASTCode edit(int offset, int length, CharSequence replacement) throws ParseException {
+        if (offset < 0 || length < 0 || offset + length > text.length())
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + length + " of " + text.length() + " chars.");
+        int end = offset + length;
+        int delta = replacement.length() - length;
+        text.replace(offset, end, replacement.toString());
+        if (tree == null)
+            return parseAll();
+        // The statements that contain the edit, outermost first, and their starts.
+        List<SimpleNode> path = new ArrayList<>();
+        List<Integer> starts = new ArrayList<>();
+        int top = lastBefore(offset);
+        if (top >= 0 && end <= begins[top] + extent(tree.jjtGetChild(top))[1]) {
+            path.add((SimpleNode)tree.jjtGetChild(top));
+            starts.add(begins[top]);
+        }
+        while (!path.isEmpty()) {
+            SimpleNode container = path.get(path.size() - 1);
+            int boundary = starts.get(starts.size() - 1);
+            SimpleNode found = null;
+            int position = boundary;
+            for (SimpleNode statement : statementsIn(container)) {
+                int[] extent = extent(statement);
+                int begin = position + extent[0];
+                if (begin >= offset)
+                    break;
+                position = begin + extent[1];
+                if (end <= position) {
+                    found = statement;
+                    boundary = begin;
+                    break;
+                }
+            }
+            if (found == null)
+                break;
+            path.add(found);
+            starts.add(boundary);
+        }
+        for (int i = path.size() - 1; i >= 0; i--) {
+            int[] extent = extent(path.get(i));
+            int oldEnd = starts.get(i) + extent[1];
+            int change = reparseStatement(path.get(i), starts.get(i), delta);
+            if (change == NOT_REPARSED)
+                continue;
+            // A statement that ended where the one parsed again did ends where it now does, and
+            // the rest of the edit comes after it; one that ended later takes the whole edit.
+            for (int j = i - 1; j >= 0; j--) {
+                extent = extent(path.get(j));
+                if (starts.get(j) + extent[1] != oldEnd)
+                    change = delta;
+                oldEnd = starts.get(j) + extent[1];
+                extent[1] += change;
+                extent[2] += delta - change;
+                shiftNext(path.get(j), starts.get(j), delta - change);
+            }
+            for (int j = top + 1; j < begins.length; j++)
+                begins[j] += delta;
+            return tree;
+        }
+        if (reparseTopLevel(offset, end, delta))
+            return tree;
+        return parseAll();
+    }
+
+    // Parse the whole source.
+    private ASTCode parseAll() throws ParseException {
+        tree = null;
+        reparsed = text.length();
+        try {
+            RangeParser parser = new RangeParser(0);
+            ASTCode code = parser.code();
+            relativise(code, 0);
+            begins = new int[code.jjtGetNumChildren()];
+            int position = 0;
+            for (int i = 0; i < begins.length; i++) {
+                int[] extent = extent(code.jjtGetChild(i));
+                begins[i] = position + extent[0];
+                position = begins[i] + extent[1];
+            }
+            return tree = code;
+        } catch (TokenMgrError e) {
+            throw new ParseException(e.getMessage());
+        }
+    }
+
+    // Returned by reparseStatement() if the statement doesn't end where it should.
+    private static final int NOT_REPARSED = Integer.MIN_VALUE;
+
+    // Parse again the statement that starts at begin and contains an edit that added delta chars.
+    // Return the change in its length, or NOT_REPARSED.
+    private int reparseStatement(SimpleNode statement, int begin, int delta) {
+        int[] extent = extent(statement);
+        int follow = begin + extent[1] + extent[2] + delta;
+        SimpleNode replacement;
+        try {
+            RangeParser parser = new RangeParser(begin);
+            parser.statement();
+            replacement = (SimpleNode)parser.jjtree.popNode();
+            if (parser.beginOf(parser.getToken(1)) != follow)
+                return NOT_REPARSED;
+        } catch (ParseException | TokenMgrError e) {
+            return NOT_REPARSED;
+        }
+        int[] range = (int[])replacement.jjtGetValue();
+        reparsed = range[1] - begin;
+        replacement.jjtSetValue(new int[] { extent[0], range[1] - begin, range[2] - range[1] });
+        relativise(replacement, begin);
+        Node parent = statement.jjtGetParent();
+        parent.jjtAddChild(replacement, indexOf(statement, begin));
+        replacement.jjtSetParent(parent);
+        int change = range[1] - begin - extent[1];
+        shiftNext(replacement, begin, delta - change);
+        return change;
+    }
+
+    // The index of a statement that starts at begin among its parent's children.
+    private int indexOf(SimpleNode statement, int begin) {
+        Node parent = statement.jjtGetParent();
+        if (parent == tree)
+            return lastBefore(begin + 1);
+        int i = 0;
+        while (parent.jjtGetChild(i) != statement)
+            i++;
+        return i;
+    }
+
+    // Move the start of the statement after the one that starts at begin, in the same enclosing
+    // statement, by shift.
+    private void shiftNext(SimpleNode statement, int begin, int shift) {
+        if (shift == 0)
+            return;
+        SimpleNode next = nextStatement(statement.jjtGetParent(), indexOf(statement, begin));
+        if (next != null)
+            extent(next)[0] += shift;
+    }
+
+    // The first statement after the ith child of parent in the same enclosing statement, or null.
+    private static SimpleNode nextStatement(Node parent, int i) {
+        for (;;) {
+            for (int j = i + 1; j < parent.jjtGetNumChildren(); j++) {
+                Node child = parent.jjtGetChild(j);
+                if (child instanceof ASTStatement)
+                    return (SimpleNode)child;
+                List<SimpleNode> statements = statementsIn(child);
+                if (!statements.isEmpty())
+                    return statements.get(0);
+            }
+            Node grandparent = parent.jjtGetParent();
+            if (parent instanceof ASTStatement || grandparent == null)
+                return null;
+            i = 0;
+            while (grandparent.jjtGetChild(i) != parent)
+                i++;
+            parent = grandparent;
+        }
+    }
+
+    // The index of the last top-level statement that starts before offset, or -1.
+    private int lastBefore(int offset) {
+        int low = -1;
+        int high = begins.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (begins[middle] < offset)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+
+    // The extent of a statement.
+    private static int[] extent(Node statement) {
+        return (int[])((SimpleNode)statement).jjtGetValue();
+    }
+
+    // Parse again the top-level statements around an edit, from offset to end before it was made,
+    // that added delta chars.  Return false if they can't be parsed.
+    private boolean reparseTopLevel(int offset, int end, int delta) {
+        int count = begins.length;
+        // The first statement parsed again is the last that starts before the edit, and the first
+        // kept after those parsed again is one that starts after it.
+        int first = Math.max(0, lastBefore(offset));
+        int start = (first == 0) ? 0 : begins[first];
+        int kept = first;
+        while (kept < count && begins[kept] < end)
+            kept++;
+        List<SimpleNode> statements = new ArrayList<>();
+        try {
+            RangeParser parser = new RangeParser(start);
+            for (;;) {
+                parser.statement();
+                statements.add((SimpleNode)parser.jjtree.popNode());
+                Token next = parser.getToken(1);
+                if (next.kind == JlangConstants.EOF) {
+                    kept = count;
+                    break;
+                }
+                int nextBegin = parser.beginOf(next);
+                while (kept < count && begins[kept] + delta < nextBegin)
+                    kept++;
+                if (kept < count && begins[kept] + delta == nextBegin)
+                    break;
+            }
+        } catch (ParseException | TokenMgrError e) {
+            return false;
+        }
+        int added = statements.size();
+        Node[] children = new Node[first + added + count - kept];
+        int[] starts = new int[children.length];
+        System.arraycopy(tree.children, 0, children, 0, first);
+        System.arraycopy(begins, 0, starts, 0, first);
+        int previousEnd = (first == 0) ? 0 : begins[first - 1] + extent(tree.jjtGetChild(first - 1))[1];
+        for (int j = 0; j < added; j++) {
+            SimpleNode statement = statements.get(j);
+            int[] range = (int[])statement.jjtGetValue();
+            statement.jjtSetValue(new int[] { range[0] - previousEnd, range[1] - range[0], range[2] - range[1] });
+            relativise(statement, range[0]);
+            statement.jjtSetParent(tree);
+            children[first + j] = statement;
+            starts[first + j] = range[0];
+            previousEnd = range[1];
+        }
+        if (kept < count)
+            extent(tree.jjtGetChild(kept))[0] = begins[kept] + delta - previousEnd;
+        System.arraycopy(tree.children, kept, children, first + added, count - kept);
+        for (int j = kept; j < count; j++)
+            starts[first + added + j - kept] = begins[j] + delta;
+        reparsed = previousEnd - start;
+        tree.children = children;
+        begins = starts;
+        return true;
+    }
+
+    // The statements nearest to container among its descendants, in order.
+    private static List<SimpleNode> statementsIn(Node container) {
+        List<SimpleNode> statements = new ArrayList<>();
+        List<Node> stack = new ArrayList<>();
+        for (int i = container.jjtGetNumChildren() - 1; i >= 0; i--)
+            stack.add(container.jjtGetChild(i));
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            if (node instanceof ASTStatement)
+                statements.add((SimpleNode)node);
+            else
+                for (int i = node.jjtGetNumChildren() - 1; i >= 0; i--)
+                    stack.add(node.jjtGetChild(i));
+        }
+        return statements;
+    }
+
+    // Make the extents of the statements in container, recorded as offsets in the source, relative
+    // to each other and to boundary, the start of container.
+    private static void relativise(SimpleNode container, int boundary) {
+        int previousEnd = boundary;
+        for (SimpleNode statement : statementsIn(container)) {
+            int[] range = (int[])statement.jjtGetValue();
+            statement.jjtSetValue(new int[] { range[0] - previousEnd, range[1] - range[0], range[2] - range[1] });
+            relativise(statement, range[0]);
+            previousEnd = range[1];
+        }
+    }
+
+    // Reads the source from an offset.
+    private class TextReader extends Reader {
+        private int position;
+
+        TextReader(int position) {
+            this.position = position;
+        }
+
+        public int read(char[] buffer, int offset, int length) {
+            int count = Math.min(length, text.length() - position);
+            if (count <= 0)
+                return -1;
+            text.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        public void close() {
+        }
+    }
+
+    // A lexer of the source from an offset, that records the offsets of the tokens it read last.
+    private static class RecordingLexer extends JlangLexer {
+        private final int start;
+        private final Token[] tokens = new Token[16];
+        private final int[] begins = new int[16];
+        private final int[] ends = new int[16];
+        private final OffsetCharStream stream;
+        private int count = 0;
+
+        RecordingLexer(OffsetCharStream stream, int start) {
+            super(stream);
+            this.stream = stream;
+            this.start = start;
+        }
+
+        public Token getNextToken() {
+            Token t = super.getNextToken();
+            int i = count++ & (tokens.length - 1);
+            tokens[i] = t;
+            // EOF is at the end of the source, after whatever was read last.
+            begins[i] = start + ((t.kind == EOF) ? stream.getEndOffset() : stream.getBeginOffset());
+            ends[i] = start + stream.getEndOffset();
+            return t;
+        }
+
+        // The index of a token recently read.
+        private int indexOf(Token t) {
+            for (int n = count - 1; n >= 0 && n >= count - tokens.length; n--)
+                if (tokens[n & (tokens.length - 1)] == t)
+                    return n & (tokens.length - 1);
+            throw new Error("Token " + t.image + " is no longer recorded.");
+        }
+
+        int beginOf(Token t) {
+            return begins[indexOf(t)];
+        }
+
+        int endOf(Token t) {
+            return ends[indexOf(t)];
+        }
+    }
+
+    // A parser of the source from an offset, that records in each statement's value the offsets of
+    // its first token, of the end of its last, and of the token that follows it.
+    private class RangeParser extends Jlang {
+        private final RecordingLexer lexer;
+
+        RangeParser(int start) {
+            this(new RecordingLexer(new OffsetCharStream(new TextReader(start)), start));
+        }
+
+        private RangeParser(RecordingLexer lexer) {
+            super(lexer);
+            this.lexer = lexer;
+            jjtree = new JJTJlangState() {
+                public void openNodeScope(Node n) {
+                    super.openNodeScope(n);
+                    if (n instanceof ASTStatement)
+                        ((SimpleNode)n).jjtSetValue(new int[] { beginOf(getToken(1)), 0, 0 });
+                }
+
+                public void closeNodeScope(Node n, boolean condition) {
+                    super.closeNodeScope(n, condition);
+                    if (condition && n instanceof ASTStatement) {
+                        int[] range = (int[])((SimpleNode)n).jjtGetValue();
+                        range[1] = lexer.endOf(token);
+                        range[2] = beginOf(getToken(1));
+                    }
+                }
+            };
+        }
+
+        int beginOf(Token t) {
+            return lexer.beginOf(t);
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package parser.ast;
+
+/** A hand-written token manager that produces the same tokens as the generated one.
+ *
+ * Tokens are recognised by a switch on their first char and a loop over the rest, and
+ * keywords by a perfect hash of their first two letters and length.  The chars of a token
+ * are collected as they are read, so the char stream never has to build its image.
+ * Punctuation and keywords share their images, and identifiers are interned, so only
+ * literals and comments need a new String.
+ *
+ * Anything rare or wrong -- a lexical error, or a string or comment with a char beyond
+ * U+00FF -- is backed up and left to the generated state machine, so both the tokens and
+ * the TokenMgrErrors are exactly those of JlangTokenManager.
+ */
+
+public class JlangLexer extends JlangTokenManager {
+    // The keywords, lower case, at the positions given by keywordHash().
+    private static final String[] keywords = new String[64];
+    private static final int[] keywordKinds = new int[64];
+
+    static {
+        String[] names = {
+            "if", "elseif", "else", "for", "while", "switch", "case", "default", "break", "write", "fn",
+            "return", "or", "and", "not", "true", "false", "int", "string", "float", "bool"
+        };
+        int[] kinds = {
+            IF, ELSEIF, ELSE, FOR, WHILE, SWITCH, CASE, SWITCHDEFAULT, BREAK, WRITE, FN,
+            RETURN, OR, AND, NOT, TRUE, FALSE, INT, STRING, FLOAT, BOOL
+        };
+        for (int i = 0; i < names.length; i++) {
+            int h = keywordHash(names[i].charAt(0), names[i].charAt(1), names[i].length());
+            if (keywords[h] != null)
+                throw new Error("Keyword hash collision: " + names[i] + " and " + keywords[h]);
+            keywords[h] = names[i];
+            keywordKinds[h] = kinds[i];
+        }
+    }
+
+    // Collision free for the keywords.  Upper and lower case letters hash alike.
+    private static int keywordHash(int first, int second, int length) {
+        return (2 * (first | 0x20) + 16 * (second | 0x20) + length) & 63;
+    }
+
+    // The image last given to each keyword, which is reused while it is spelt the same way.
+    private final String[] keywordImages = new String[64];
+
+    // Identifiers seen so far, by hash, with open addressing.
+    private String[] names = new String[1024];
+    private int nameCount = 0;
+
+    // The chars of the current token, and how many have been read.
+    private char[] text = new char[256];
+    private int length;
+
+    /** Constructor. */
+    public JlangLexer(SimpleCharStream stream) {
+        super(stream);
+    }
+
+    // Read the next char of the token, or return -1 at end of input.
+    private int next() {
+        char c;
+        try {
+            c = input_stream.readChar();
+        } catch (java.io.IOException e) {
+            return -1;
+        }
+        if (length == text.length) {
+            char[] larger = new char[2 * length];
+            System.arraycopy(text, 0, larger, 0, length);
+            text = larger;
+        }
+        text[length++] = c;
+        return c;
+    }
+
+    // Put back the chars read after the first mark.
+    private void backupTo(int mark) {
+        if (length > mark) {
+            input_stream.backup(length - mark);
+            length = mark;
+        }
+    }
+
+    // A token of a kind, with the position of the chars read.
+    private Token token(int kind, String image) {
+        Token t = Token.newToken(kind, image);
+        t.beginLine = input_stream.getBeginLine();
+        t.beginColumn = input_stream.getBeginColumn();
+        t.endLine = input_stream.getEndLine();
+        t.endColumn = input_stream.getEndColumn();
+        return t;
+    }
+
+    // A token of the kind of a fixed image.
+    private Token punctuation(int kind) {
+        return token(kind, jjstrLiteralImages[kind]);
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(int c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isOctalDigit(int c) {
+        return c >= '0' && c <= '7';
+    }
+
+    // A LETTER beyond ASCII, as the grammar defines it.  The grammar's DIGITs beyond ASCII
+    // all lie within these ranges.
+    private static boolean isOtherLetter(int c) {
+        return (c >= 0x00c0 && c <= 0x00ff && c != 0x00d7 && c != 0x00f7)
+                || (c >= 0x0100 && c <= 0x1fff)
+                || (c >= 0x3040 && c <= 0x318f)
+                || (c >= 0x3300 && c <= 0x337f)
+                || (c >= 0x3400 && c <= 0x3d2d)
+                || (c >= 0x4e00 && c <= 0x9fff)
+                || (c >= 0xf900 && c <= 0xfaff);
+    }
+
+    private static boolean isIdentifierStart(int c) {
+        if (c < 0x80)
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+        return isOtherLetter(c);
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        if (c < 0x80)
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_' || c == '$' || c == '#';
+        return isOtherLetter(c);
+    }
+
+    /** Get the next Token. */
+    public Token getNextToken() {
+        Token specialToken = null;
+        for (;;) {
+            int c;
+            try {
+                c = input_stream.BeginToken();
+            } catch (java.io.IOException e) {
+                Token eof = token(EOF, jjstrLiteralImages[EOF]);
+                eof.specialToken = specialToken;
+                return eof;
+            }
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f')
+                continue;
+            text[0] = (char)c;
+            length = 1;
+            Token t = match(c);
+            if (t == null)
+                t = delegate();
+            if (t.kind == SINGLE_LINE_COMMENT || t.kind == MULTI_LINE_COMMENT) {
+                if (specialToken != null) {
+                    t.specialToken = specialToken;
+                    specialToken.next = t;
+                }
+                specialToken = t;
+                continue;
+            }
+            if (specialToken != null) {
+                // Put those found here before any the generated token manager found.
+                Token first = t;
+                while (first.specialToken != null)
+                    first = first.specialToken;
+                if (first != t) {
+                    first.specialToken = specialToken;
+                    specialToken.next = first;
+                } else
+                    t.specialToken = specialToken;
+            }
+            return t;
+        }
+    }
+
+    // Back up to the start of the token, and let the generated state machine match it.
+    private Token delegate() {
+        input_stream.backup(length);
+        length = 0;
+        return super.getNextToken();
+    }
+
+    // Match the token that starts with c, or return null to delegate it.
+    private Token match(int c) {
+        switch (c) {
+        case '(':
+            return punctuation(LPAREN);
+        case ')':
+            return punctuation(RPAREN);
+        case '{':
+            return punctuation(LBRACE);
+        case '}':
+            return punctuation(RBRACE);
+        case '[':
+            return punctuation(LBRACKET);
+        case ']':
+            return punctuation(RBRACKET);
+        case ';':
+            return punctuation(SEMICOLON);
+        case ',':
+            return punctuation(COMMA);
+        case ':':
+            // The grammar's ":" has no name.
+            return punctuation(63);
+        case '*':
+            return punctuation(STAR);
+        case '%':
+            return punctuation(REM);
+        case '+':
+            return followedByEquals(PEQ, PLUS);
+        case '-':
+            return followedByEquals(MEQ, SUBT);
+        case '=':
+            return followedByEquals(EQ, ASSIGN);
+        case '<':
+            return followedByEquals(LE, LT);
+        case '>':
+            return followedByEquals(GE, GT);
+        case '!':
+            return followedByEquals(NE, -1);
+        case '@':
+            return followedByEquals(UEQ, -1);
+        case '/':
+            return slash();
+        case '.':
+            if (isDigit(next()))
+                return fraction();
+            backupTo(1);
+            return punctuation(DOT);
+        case '"':
+        case '\'':
+            return string(c);
+        default:
+            if (isDigit(c))
+                return number();
+            if (isIdentifierStart(c))
+                return identifier(c);
+            return null;
+        }
+    }
+
+    // The first kind if the next char is '=', otherwise the second.  A second kind of -1
+    // means there is no token without the '='.
+    private Token followedByEquals(int withEquals, int without) {
+        if (next() == '=')
+            return punctuation(withEquals);
+        backupTo(1);
+        return (without < 0) ? null : punctuation(without);
+    }
+
+    // A comment or '/'.  A comment with a char beyond U+00FF, and a "//" comment with no
+    // line end, are not comments to the generated token manager.
+    private Token slash() {
+        int c = next();
+        if (c == '/') {
+            for (;;) {
+                c = next();
+                if (c < 0 || c > 0xff)
+                    return null;
+                if (c == '\n')
+                    break;
+                if (c == '\r') {
+                    c = next();
+                    if (c != '\n' && c >= 0)
+                        backupTo(length - 1);
+                    break;
+                }
+            }
+            return token(SINGLE_LINE_COMMENT, new String(text, 0, length));
+        }
+        if (c == '*') {
+            boolean star = false;
+            for (;;) {
+                c = next();
+                if (c < 0 || c > 0xff)
+                    return null;
+                if (c == '/' && star)
+                    break;
+                star = c == '*';
+            }
+            return token(MULTI_LINE_COMMENT, new String(text, 0, length));
+        }
+        backupTo(1);
+        return punctuation(SLASH);
+    }
+
+    // A string literal delimited by quote.
+    private Token string(int quote) {
+        for (;;) {
+            int c = next();
+            if (c == quote)
+                return token(STRING_LITERAL, new String(text, 0, length));
+            if (c < 0 || c > 0xff || c == '\n' || c == '\r')
+                return null;
+            if (c == '\\') {
+                c = next();
+                if (c != 'n' && c != 't' && c != 'b' && c != 'r' && c != 'f' && c != '\\' && c != '\''
+                        && c != '"' && !isOctalDigit(c))
+                    return null;
+            }
+        }
+    }
+
+    // Read digits, and return the first char after them, which is not consumed.
+    private int digits() {
+        int c;
+        while (isDigit(c = next()))
+            ;
+        if (c >= 0)
+            backupTo(length - 1);
+        return c;
+    }
+
+    // Consume an exponent if one follows.
+    private void exponent() {
+        int mark = length;
+        int c = next();
+        if (c != 'e' && c != 'E')
+            backupTo(mark);
+        else if (!signedDigits())
+            backupTo(mark);
+    }
+
+    // After an exponent's 'e', consume an optionally signed run of digits.  Return false if
+    // there isn't one.
+    private boolean signedDigits() {
+        int c = next();
+        if (c == '+' || c == '-')
+            c = next();
+        if (!isDigit(c))
+            return false;
+        digits();
+        return true;
+    }
+
+    // Consume a char if it is one of the two given.
+    private void optional(int lower, int upper) {
+        int c = next();
+        if (c != lower && c != upper && c >= 0)
+            backupTo(length - 1);
+    }
+
+    // A floating point literal whose digits after the point are to be read, with the
+    // point and one digit read.
+    private Token fraction() {
+        digits();
+        return floatSuffix();
+    }
+
+    // Finish a floating point literal whose exponent may follow.
+    private Token floatSuffix() {
+        exponent();
+        optionalFloatSuffix();
+        return token(FLOATING_POINT_LITERAL, new String(text, 0, length));
+    }
+
+    // Consume an 'f' or 'd' suffix if one follows.
+    private void optionalFloatSuffix() {
+        int c = next();
+        if (c != 'f' && c != 'F' && c != 'd' && c != 'D' && c >= 0)
+            backupTo(length - 1);
+    }
+
+    // A numeric literal, with its first digit read.
+    private Token number() {
+        int c = digits();
+        int integerLength = length;
+        if (c == '.') {
+            next();
+            digits();
+            return floatSuffix();
+        }
+        if (c == 'e' || c == 'E') {
+            next();
+            if (signedDigits()) {
+                optionalFloatSuffix();
+                return token(FLOATING_POINT_LITERAL, new String(text, 0, length));
+            }
+            backupTo(integerLength);
+        } else if (c == 'f' || c == 'F' || c == 'd' || c == 'D') {
+            next();
+            return token(FLOATING_POINT_LITERAL, new String(text, 0, length));
+        }
+        if (text[0] != '0')
+            optional('l', 'L');
+        else if (length == 1) {
+            // A hex literal needs at least one digit after the "0x".
+            c = next();
+            if ((c == 'x' || c == 'X') && isHexDigit(next())) {
+                while (isHexDigit(c = next()))
+                    ;
+                if (c >= 0)
+                    backupTo(length - 1);
+            } else
+                backupTo(1);
+            optional('l', 'L');
+        } else {
+            // An octal literal ends at an '8' or '9'.
+            int end = 1;
+            while (end < length && isOctalDigit(text[end]))
+                end++;
+            if (end == length)
+                optional('l', 'L');
+            else
+                backupTo(end);
+        }
+        return token(INTEGER_LITERAL, new String(text, 0, length));
+    }
+
+    // An identifier or keyword, with its first char read.
+    private Token identifier(int c) {
+        int hash = c;
+        while (isIdentifierPart(c = next()))
+            hash = 31 * hash + c;
+        if (c >= 0)
+            backupTo(length - 1);
+        if (length >= 2 && length <= 7) {
+            int h = keywordHash(text[0], text[1], length);
+            String keyword = keywords[h];
+            if (keyword != null && keyword.length() == length && matchesIgnoringCase(keyword))
+                return token(keywordKinds[h], keywordImage(h));
+        }
+        return token(IDENTIFIER, name(hash));
+    }
+
+    // True if the token is the lower case keyword in any case.
+    private boolean matchesIgnoringCase(String keyword) {
+        for (int i = 0; i < length; i++)
+            if ((text[i] | 0x20) != keyword.charAt(i))
+                return false;
+        return true;
+    }
+
+    // True if the token is s.
+    private boolean matches(String s) {
+        if (s.length() != length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (text[i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    // The image of the token as keyword h, reusing the last one if it is spelt the same.
+    private String keywordImage(int h) {
+        String image = keywordImages[h];
+        if (image == null || !matches(image))
+            keywordImages[h] = image = new String(text, 0, length);
+        return image;
+    }
+
+    // The interned image of the token as an identifier with a given hash.
+    private String name(int hash) {
+        int mask = names.length - 1;
+        int i = (hash ^ (hash >>> 16)) & mask;
+        for (String name; (name = names[i]) != null; i = (i + 1) & mask)
+            if (matches(name))
+                return name;
+        String name = new String(text, 0, length);
+        names[i] = name;
+        if (++nameCount * 2 > names.length)
+            rehash();
+        return name;
+    }
+
+    // Double the table of identifiers.
+    private void rehash() {
+        String[] old = names;
+        names = new String[2 * old.length];
+        int mask = names.length - 1;
+        for (String name : old)
+            if (name != null) {
+                int hash = name.hashCode();
+                int i = (hash ^ (hash >>> 16)) & mask;
+                while (names[i] != null)
+                    i = (i + 1) & mask;
+                names[i] = name;
+            }
+    }
+}
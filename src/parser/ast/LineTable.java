@@ -0,0 +1,112 @@
+package parser.ast;
+
+/** The offsets at which the lines of a source start, in ascending order.  Also used for
+ * any other ascending offsets, such as those of tabs.
+ *
+ * Line n (counting from the first line number) starts at offset start(n - first).  A line
+ * ends after "\n", after "\r\n", or after a "\r" not followed by "\n", and the line end
+ * belongs to the line it ends, as in SimpleCharStream.
+ *
+ * The earliest entries can be forgotten, so that a table of a long stream stays small.
+ * Indices still count them.
+ */
+
+final class LineTable {
+    private int[] starts = new int[256];
+    private int count = 0;
+    // The number of entries forgotten, which came before starts[0].
+    private int forgotten = 0;
+    // The line last found by indexOf(), which is usually asked about again or followed.
+    private int last = 0;
+
+    /** Record that a line starts at offset, which is beyond the start of every earlier line. */
+    void add(int offset) {
+        if (count == starts.length) {
+            int[] larger = new int[2 * count];
+            System.arraycopy(starts, 0, larger, 0, count);
+            starts = larger;
+        }
+        starts[count++] = offset;
+    }
+
+    /** Get the number of lines recorded, including those forgotten. */
+    int size() {
+        return forgotten + count;
+    }
+
+    /** Get the offset at which the ith line recorded starts.  It must not be forgotten. */
+    int start(int i) {
+        return starts[i - forgotten];
+    }
+
+    /** Get the index of the line containing offset, which is at or after the first line not
+     * forgotten. */
+    int indexOf(int offset) {
+        int i = last;
+        if (i < count && starts[i] <= offset && (i + 1 == count || offset < starts[i + 1]))
+            return forgotten + i;
+        return search(offset);
+    }
+
+    // indexOf(), away from the line last found.  Kept apart so that indexOf() is inlined.  The
+    // line asked about is usually a little after it, so a few lines after it are looked at
+    // before the table is searched.
+    private int search(int offset) {
+        int low = 0;
+        if (last < count && starts[last] <= offset) {
+            for (int i = last + 1; i < count && i <= last + 8; i++) {
+                if (offset < starts[i])
+                    return forgotten + (last = i - 1);
+            }
+            low = last;
+        }
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= offset)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        last = low;
+        return forgotten + low;
+    }
+
+    /** Get the index of the first offset recorded that is at or after offset, or size() if none is. */
+    int ceiling(int offset) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < offset)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return forgotten + low;
+    }
+
+    /** True if an offset at or after offset is recorded and not forgotten. */
+    boolean reaches(int offset) {
+        return count > 0 && starts[count - 1] >= offset;
+    }
+
+    /** Forget the lines after the first n. */
+    void truncate(int n) {
+        if (n - forgotten < count)
+            count = Math.max(0, n - forgotten);
+        if (last >= count)
+            last = 0;
+    }
+
+    /** Forget the lines before the ith. */
+    void forget(int i) {
+        int n = i - forgotten;
+        if (n <= 0)
+            return;
+        System.arraycopy(starts, n, starts, 0, count - n);
+        count -= n;
+        forgotten = i;
+        last = Math.max(0, last - n);
+    }
+}
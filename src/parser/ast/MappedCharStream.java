@@ -0,0 +1,376 @@
+package parser.ast;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/** A SimpleCharStream that reads UTF-8 source straight from a ByteBuffer, normally a
+ * memory-mapped file, without copying it into a char buffer.  Source read from stdin is decoded
+ * as UTF-8 too, so a file parses the same however it is given.
+ *
+ * A character's position is the offset of its first byte, except that a 4-byte sequence,
+ * which is two chars, has its high surrogate at the offset L of its lead byte and its low
+ * surrogate at L + 2.  ASCII is read directly; only other bytes are decoded, and a byte
+ * that does not start a valid sequence reads as U+FFFD.  Lines and columns are computed
+ * when asked for, from a table of line starts, and agree with SimpleCharStream's,
+ * including the expansion of tabs.
+ */
+
+public class MappedCharStream extends SimpleCharStream {
+    private final ByteBuffer bytes;
+    private final int size;
+    private final int firstLine;
+    private final LineTable lines = new LineTable();
+    // Lines on which a char's column is not simply its offset from the line start plus one.
+    private final BitSet unevenLines = new BitSet();
+
+    // Position of the last char read, of the next char to read, and of the token's first char.
+    private int current = -1;
+    private int next = 0;
+    private int begin = -1;
+
+    // Position following the char last decoded by decode().
+    private int decodedNext;
+
+    // The column of a position, from which the column of a later position on the same line
+    // can be found by walking forward.
+    private int cachedLine = -1;
+    private int cachedPosition;
+    private int cachedColumn;
+
+    // Set by adjustBeginLineColumn().
+    private int lineAdjustment = 0;
+    private int columnAdjustedLine = -1;
+    private int columnAdjustment = 0;
+
+    private byte[] imageBytes = new byte[256];
+    private char[] imageChars = new char[256];
+
+    /** Ctor for source in bytes, from position to limit, whose first line is startline. */
+    public MappedCharStream(ByteBuffer bytes, int startline) {
+        super((java.io.Reader)null, startline, 1, 1);
+        this.bytes = bytes.slice();
+        size = this.bytes.limit();
+        firstLine = startline;
+        lines.add(0);
+        scanLines();
+    }
+
+    // Record the line starts, and which lines have a tab or non-ASCII char.  Eight bytes at a
+    // time are tested at once, and only a word holding one of those or a line end is looked
+    // at byte by byte.
+    private void scanLines() {
+        int i = 0;
+        for (; i + 8 <= size; i += 8) {
+            long word = bytes.getLong(i);
+            long special = hasByte(word, '\n') | hasByte(word, '\r') | hasByte(word, '\t')
+                    | (word & 0x8080808080808080L);
+            if (special != 0)
+                for (int j = i; j < i + 8; j++)
+                    scan(j);
+        }
+        for (; i < size; i++)
+            scan(i);
+    }
+
+    // Nonzero in the top bit of each byte of a word that equals b, and perhaps elsewhere.
+    private static long hasByte(long word, int b) {
+        long x = word ^ (0x0101010101010101L * b);
+        return (x - 0x0101010101010101L) & ~x & 0x8080808080808080L;
+    }
+
+    // Record a line start after position i if it ends a line, and if it is a tab or not
+    // ASCII, that its line is uneven.
+    private void scan(int i) {
+        byte b = bytes.get(i);
+        if (b < 0 || b == '\t')
+            unevenLines.set(lines.size() - 1);
+        else if (b == '\n' || (b == '\r' && (i + 1 == size || bytes.get(i + 1) != '\n')))
+            lines.add(i + 1);
+    }
+
+    /** Return a stream that reads a file through a read-only memory mapping. */
+    public static MappedCharStream open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to map.");
+            return new MappedCharStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, length), 1);
+        }
+    }
+
+    /** Get the bytes read. */
+    public ByteBuffer getBytes() {
+        return bytes.duplicate();
+    }
+
+    // Bytes in the UTF-8 sequence with a given lead byte, or 0 if it cannot lead one.
+    private static int sequenceLength(int lead) {
+        if (lead < 0x80)
+            return 1;
+        if (lead < 0xC2)
+            return 0;
+        if (lead < 0xE0)
+            return 2;
+        if (lead < 0xF0)
+            return 3;
+        if (lead < 0xF5)
+            return 4;
+        return 0;
+    }
+
+    // Length of the valid UTF-8 sequence at position p, or 0 if there isn't one.
+    private int validLength(int p) {
+        if (p < 0 || p >= size)
+            return 0;
+        int lead = bytes.get(p) & 0xFF;
+        int n = sequenceLength(lead);
+        if (n <= 1)
+            return n;
+        if (p + n > size)
+            return 0;
+        int second = bytes.get(p + 1) & 0xFF;
+        // Reject overlong forms, surrogates and code points beyond U+10FFFF.
+        if ((lead == 0xE0 && second < 0xA0) || (lead == 0xED && second > 0x9F)
+                || (lead == 0xF0 && second < 0x90) || (lead == 0xF4 && second > 0x8F))
+            return 0;
+        for (int i = 1; i < n; i++)
+            if ((bytes.get(p + i) & 0xC0) != 0x80)
+                return 0;
+        return n;
+    }
+
+    // Decode the char at position p, and set decodedNext to the position after it.
+    private char decode(int p) {
+        int b = bytes.get(p);
+        if (b >= 0) {
+            decodedNext = p + 1;
+            return (char)b;
+        }
+        // The low surrogate of a 4-byte sequence?
+        if (validLength(p - 2) == 4) {
+            decodedNext = p + 2;
+            return Character.lowSurrogate(codePoint(p - 2, 4));
+        }
+        int n = validLength(p);
+        if (n == 0) {
+            decodedNext = p + 1;
+            return '\uFFFD';
+        }
+        if (n == 4) {
+            decodedNext = p + 2;
+            return Character.highSurrogate(codePoint(p, 4));
+        }
+        decodedNext = p + n;
+        return (char)codePoint(p, n);
+    }
+
+    // The code point of the valid n-byte sequence at position p.
+    private int codePoint(int p, int n) {
+        int c = bytes.get(p) & (0x7F >> n);
+        for (int i = 1; i < n; i++)
+            c = (c << 6) | (bytes.get(p + i) & 0x3F);
+        return c;
+    }
+
+    // The position of the char before the one at position p.
+    private int previous(int p) {
+        if (bytes.get(p - 1) >= 0)
+            return p - 1;
+        int n = validLength(p - 2);
+        if (n == 2 || n == 4)
+            return p - 2;
+        if (validLength(p - 3) == 3)
+            return p - 3;
+        if (validLength(p - 4) == 4)
+            return p - 2;
+        return p - 1;
+    }
+
+    /** Start. */
+    public char BeginToken() throws IOException {
+        if (next >= size) {
+            begin = current;
+            throw new IOException();
+        }
+        char c = readChar();
+        begin = current;
+        return c;
+    }
+
+    /** Read a character. */
+    public char readChar() throws IOException {
+        if (next >= size)
+            throw new IOException();
+        current = next;
+        int b = bytes.get(next);
+        if (b >= 0) {
+            next++;
+            return (char)b;
+        }
+        char c = decode(next);
+        next = decodedNext;
+        return c;
+    }
+
+    /** Backup a number of characters. */
+    public void backup(int amount) {
+        if (amount == 0)
+            return;
+        for (int i = 0; i < amount; i++)
+            next = previous(next);
+        current = (next > 0) ? previous(next) : -1;
+    }
+
+    // The line number of position p.
+    private int line(int p) {
+        if (p < 0)
+            return 0;
+        return firstLine + lines.indexOf(p) + lineAdjustment;
+    }
+
+    // The column number of position p.
+    private int column(int p) {
+        if (p < 0)
+            return 0;
+        int index = lines.indexOf(p);
+        int adjustment = (index == columnAdjustedLine) ? columnAdjustment : 0;
+        if (!unevenLines.get(index))
+            return p - lines.start(index) + 1 + adjustment;
+        int position;
+        int column;
+        if (index == cachedLine && cachedPosition <= p) {
+            position = cachedPosition;
+            column = cachedColumn;
+        } else {
+            position = lines.start(index);
+            column = advance(0, decode(position));
+        }
+        while (position < p) {
+            int b = bytes.get(position);
+            if (b >= 0)
+                position++;
+            else {
+                decode(position);
+                position = decodedNext;
+            }
+            b = bytes.get(position);
+            column = advance(column, (b >= 0) ? (char)b : decode(position));
+        }
+        cachedLine = index;
+        cachedPosition = position;
+        cachedColumn = column;
+        return column + adjustment;
+    }
+
+    // The column of a char, given the column of the char before it.
+    private int advance(int column, char c) {
+        if (c == '\t')
+            return column + (tabSize - (column % tabSize));
+        return column + 1;
+    }
+
+    @Deprecated
+    public int getColumn() {
+        return column(current);
+    }
+
+    @Deprecated
+    public int getLine() {
+        return line(current);
+    }
+
+    /** Get token end column number. */
+    public int getEndColumn() {
+        return column(current);
+    }
+
+    /** Get token end line number. */
+    public int getEndLine() {
+        return line(current);
+    }
+
+    /** Get token beginning column number. */
+    public int getBeginColumn() {
+        return column(begin);
+    }
+
+    /** Get token beginning line number. */
+    public int getBeginLine() {
+        return line(begin);
+    }
+
+    /** Get the offset of the token's first byte. */
+    public int getBeginOffset() {
+        return begin;
+    }
+
+    /** Get the offset following the token's last byte. */
+    public int getEndOffset() {
+        return next;
+    }
+
+    /** Get token literal value. */
+    public String GetImage() {
+        if (begin < 0 || current < begin)
+            return "";
+        decode(current);
+        int end = decodedNext;
+        int length = end - begin;
+        if (length > imageBytes.length)
+            imageBytes = new byte[Math.max(length, 2 * imageBytes.length)];
+        // Tokens are short, so a loop beats a bulk copy.
+        int ascii = 0;
+        for (int i = 0; i < length; i++)
+            ascii |= imageBytes[i] = bytes.get(begin + i);
+        if (ascii >= 0)
+            return new String(imageBytes, 0, length, StandardCharsets.ISO_8859_1);
+        return new String(imageChars(begin, end), 0, charCount);
+    }
+
+    // Number of chars put in imageChars by imageChars().
+    private int charCount;
+
+    // Decode the chars from position start up to position end into imageChars.
+    private char[] imageChars(int start, int end) {
+        charCount = 0;
+        for (int p = start; p < end; p = decodedNext) {
+            if (charCount == imageChars.length) {
+                char[] larger = new char[2 * charCount];
+                System.arraycopy(imageChars, 0, larger, 0, charCount);
+                imageChars = larger;
+            }
+            imageChars[charCount++] = decode(p);
+        }
+        return imageChars;
+    }
+
+    /** Get the suffix. */
+    public char[] GetSuffix(int len) {
+        int start = next;
+        for (int i = 0; i < len; i++)
+            start = previous(start);
+        char[] suffix = new char[len];
+        System.arraycopy(imageChars(start, next), 0, suffix, 0, len);
+        return suffix;
+    }
+
+    /** Reset buffer when finished. */
+    public void Done() {
+    }
+
+    /** Method to adjust line and column numbers for the start of a token. */
+    public void adjustBeginLineColumn(int newLine, int newCol) {
+        int index = lines.indexOf(Math.max(begin, 0));
+        columnAdjustment = 0;
+        columnAdjustedLine = -1;
+        int beginColumn = column(begin);
+        lineAdjustment += newLine - line(begin);
+        columnAdjustedLine = index;
+        columnAdjustment = newCol - beginColumn;
+    }
+}
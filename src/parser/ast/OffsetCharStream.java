@@ -0,0 +1,313 @@
+package parser.ast;
+
+/** A SimpleCharStream that tracks positions as offsets from the start of the stream, instead
+ * of keeping a line and a column for every buffered char.
+ *
+ * The stream records where each line starts and where each tab is, in LineTables, and works out
+ * a line or column only when it is asked for.  Chars other than tabs take one column each, so
+ * only the tabs on a char's own line are visited, and a token just read, which is usually on the
+ * last line read and after its last tab, needs none of them.  A token's offsets can be had as well as its
+ * positions, and the lines before the current token can be forgotten, so a long stream is
+ * tracked in constant space.  The buffer grows geometrically, so a long token costs linear time
+ * to buffer.
+ */
+
+public class OffsetCharStream extends SimpleCharStream {
+    // Offset of the char at bufpos, and of the char at tokenBegin.
+    private int offset;
+    private int tokenBeginOffset;
+    // Offsets at which lines start, and of tabs.
+    private LineTable lines;
+    private LineTable tabs;
+    private int firstLine;
+    // Column before the first char of the first line.
+    private int firstColumn;
+    // Set by adjustBeginLineColumn().
+    private int lineAdjustment;
+    private int columnAdjustedLine;
+    private int columnAdjustment;
+    // The last line read: where it starts, its number, and its column adjustment; and the offset
+    // and unadjusted column of its last tab, or of the char before it if it has none.  Most tokens
+    // are asked about when they have just been read, and are after that mark.
+    private int lastLineStart;
+    private int lastLineNumber;
+    private int lastLineAdjustment;
+    private int lastMark;
+    private int lastMarkColumn;
+    // A cursor on the line whose columns were last worked out, since tokens are usually asked
+    // about in order, several times each: the offset of the last tab passed, or of the char before
+    // the line, its column before any adjustment, the line's adjustment, and the next tab.
+    private int cachedLine = -1;
+    private int cursor;
+    private int cursorColumn;
+    private int cachedAdjustment;
+    private int nextTab;
+
+    /** Ctor for a stream of a reader, whose first char is at a given line and column. */
+    public OffsetCharStream(java.io.Reader dstream, int startline, int startcolumn, int buffersize) {
+        super(dstream, startline, startcolumn, buffersize);
+        // Positions are not kept per char.
+        bufline = bufcolumn = null;
+        resetPositions(startline, startcolumn);
+    }
+
+    /** Ctor for a stream of a reader, whose first char is at line 1, column 1. */
+    public OffsetCharStream(java.io.Reader dstream) {
+        this(dstream, 1, 1, 4096);
+    }
+
+    /** Ctor for a stream of an input stream in the default charset, whose first char is at line 1,
+     * column 1. */
+    public OffsetCharStream(java.io.InputStream dstream) {
+        this(new java.io.InputStreamReader(dstream), 1, 1, 4096);
+    }
+
+    /** Reinitialise to read from dstream.  The other ReInit()s come here. */
+    public void ReInit(java.io.Reader dstream, int startline, int startcolumn, int buffersize) {
+        super.ReInit(dstream, startline, startcolumn, buffersize);
+        bufline = bufcolumn = null;
+        resetPositions(startline, startcolumn);
+    }
+
+    // Start tracking positions afresh.
+    private void resetPositions(int startline, int startcolumn) {
+        offset = tokenBeginOffset = -1;
+        lines = new LineTable();
+        lines.add(0);
+        tabs = new LineTable();
+        firstLine = startline;
+        firstColumn = startcolumn - 1;
+        lineAdjustment = columnAdjustment = 0;
+        columnAdjustedLine = -1;
+        cachedLine = -1;
+        lastLineStart = 0;
+        lastMark = -1;
+        lastMarkColumn = firstColumn;
+        renumberLastLine();
+    }
+
+    // Work out the number and column adjustment of the last line read, for the adjustments.
+    private void renumberLastLine() {
+        int index = lines.size() - 1;
+        lastLineNumber = firstLine + index + lineAdjustment;
+        lastLineAdjustment = (index == columnAdjustedLine) ? columnAdjustment : 0;
+    }
+
+    // Record that a line starts at offset.
+    private void newLine() {
+        lines.add(offset);
+        lastLineStart = offset;
+        lastLineNumber++;
+        lastLineAdjustment = 0;
+        lastMark = offset - 1;
+        lastMarkColumn = 0;
+    }
+
+    protected void ExpandBuff(boolean wrapAround) {
+        int increase = Math.max(2048, bufsize);
+        char[] newbuffer = new char[bufsize + increase];
+        if (wrapAround) {
+            System.arraycopy(buffer, tokenBegin, newbuffer, 0, bufsize - tokenBegin);
+            System.arraycopy(buffer, 0, newbuffer, bufsize - tokenBegin, bufpos);
+            maxNextCharInd = (bufpos += (bufsize - tokenBegin));
+        } else {
+            System.arraycopy(buffer, tokenBegin, newbuffer, 0, bufsize - tokenBegin);
+            maxNextCharInd = (bufpos -= tokenBegin);
+        }
+        buffer = newbuffer;
+        bufsize += increase;
+        available = bufsize;
+        tokenBegin = 0;
+    }
+
+    public char BeginToken() throws java.io.IOException {
+        tokenBegin = -1;
+        char c;
+        try {
+            c = readChar();
+        } catch (java.io.IOException e) {
+            tokenBeginOffset = offset;
+            throw e;
+        }
+        tokenBegin = bufpos;
+        tokenBeginOffset = offset;
+        return c;
+    }
+
+    // Record where a line starts or a tab is, for a char read for the first time.
+    protected void UpdateLineColumn(char c) {
+        if (prevCharIsLF) {
+            prevCharIsLF = false;
+            newLine();
+        } else if (prevCharIsCR) {
+            prevCharIsCR = false;
+            if (c == '\n')
+                prevCharIsLF = true;
+            else
+                newLine();
+        }
+        switch (c) {
+            case '\r':
+                prevCharIsCR = true;
+                break;
+            case '\n':
+                prevCharIsLF = true;
+                break;
+            case '\t':
+                tabs.add(offset);
+                lastMarkColumn += offset - lastMark - 1;
+                lastMarkColumn += (tabSize - (lastMarkColumn % tabSize));
+                lastMark = offset;
+                break;
+            default:
+                break;
+        }
+    }
+
+    public char readChar() throws java.io.IOException {
+        if (inBuf > 0) {
+            --inBuf;
+            if (++bufpos == bufsize)
+                bufpos = 0;
+            offset++;
+            return buffer[bufpos];
+        }
+        if (++bufpos >= maxNextCharInd)
+            FillBuff();
+        char c = buffer[bufpos];
+        offset++;
+        UpdateLineColumn(c);
+        return c;
+    }
+
+    public void backup(int amount) {
+        inBuf += amount;
+        offset -= amount;
+        if ((bufpos -= amount) < 0)
+            bufpos += bufsize;
+    }
+
+    // Get the line number of the char at an offset.
+    private int lineOf(int at) {
+        if (at >= lastLineStart)
+            return lastLineNumber;
+        if (at < 0)
+            return 0;
+        return firstLine + lines.indexOf(at) + lineAdjustment;
+    }
+
+    // Get the column number of the char at an offset.
+    private int columnOf(int at) {
+        if (at >= lastLineStart && at >= lastMark)
+            return lastMarkColumn + at - lastMark + lastLineAdjustment;
+        return columnWithTabs(at);
+    }
+
+    // columnOf(), for a char on an earlier line, or before a tab.  Kept apart so that columnOf()
+    // is inlined.
+    private int columnWithTabs(int at) {
+        if (at < 0)
+            return 0;
+        int index = lines.indexOf(at);
+        if (index != cachedLine || at < cursor)
+            startLine(index);
+        if (nextTab < tabs.size() && tabs.start(nextTab) <= at)
+            passTabs(at);
+        return cursorColumn + at - cursor + cachedAdjustment;
+    }
+
+    // Move the cursor to the start of a line.
+    private void startLine(int index) {
+        int start = lines.start(index);
+        if (cachedLine >= 0 && index > cachedLine) {
+            // The tabs before it are usually few, and on lines passed since.
+            while (nextTab < tabs.size() && tabs.start(nextTab) < start)
+                nextTab++;
+        } else
+            nextTab = tabs.ceiling(start);
+        cachedLine = index;
+        cursor = start - 1;
+        cursorColumn = (index == 0) ? firstColumn : 0;
+        cachedAdjustment = (index == columnAdjustedLine) ? columnAdjustment : 0;
+    }
+
+    // Move the cursor over the tabs up to an offset on its line.
+    private void passTabs(int at) {
+        int tab;
+        while (nextTab < tabs.size() && (tab = tabs.start(nextTab)) <= at) {
+            cursorColumn += tab - cursor - 1;
+            cursorColumn += (tabSize - (cursorColumn % tabSize));
+            cursor = tab;
+            nextTab++;
+        }
+    }
+
+    @Deprecated
+    public int getColumn() {
+        return columnOf(offset);
+    }
+
+    @Deprecated
+    public int getLine() {
+        return lineOf(offset);
+    }
+
+    public int getEndColumn() {
+        return columnOf(offset);
+    }
+
+    public int getEndLine() {
+        return lineOf(offset);
+    }
+
+    public int getBeginColumn() {
+        return columnOf(tokenBeginOffset);
+    }
+
+    public int getBeginLine() {
+        return lineOf(tokenBeginOffset);
+    }
+
+    /** Get the offset of the token's first char from the start of the stream. */
+    public int getBeginOffset() {
+        return tokenBeginOffset;
+    }
+
+    /** Get the offset following the token's last char. */
+    public int getEndOffset() {
+        return offset + 1;
+    }
+
+    /** Forget where the lines before the current token's are, and the tabs on them.  Positions on
+     * those lines can't be asked for afterwards. */
+    public void forgetEarlierLines() {
+        if (tokenBeginOffset < 0)
+            return;
+        int line = lines.indexOf(tokenBeginOffset);
+        tabs.forget(tabs.ceiling(lines.start(line)));
+        lines.forget(line);
+        cachedLine = -1;
+    }
+
+    public void Done() {
+        super.Done();
+        lines = null;
+        tabs = null;
+    }
+
+    /** Adjust the line and column of the token's first char.  Later lines are renumbered to
+     * follow, and later chars on the token's line shift by the same number of columns. */
+    public void adjustBeginLineColumn(int newLine, int newCol) {
+        int at = Math.max(tokenBeginOffset, 0);
+        columnAdjustedLine = -1;
+        columnAdjustment = 0;
+        cachedLine = -1;
+        renumberLastLine();
+        int beginColumn = columnOf(at);
+        lineAdjustment += newLine - lineOf(at);
+        columnAdjustedLine = lines.indexOf(at);
+        columnAdjustment = newCol - beginColumn;
+        cachedLine = -1;
+        renumberLastLine();
+    }
+}
@@ -0,0 +1,262 @@
+package parser.ast;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+/** Lexes and parses a large UTF-8 source in chunks, in parallel, and stitches the chunks'
+ * statements into one ASTCode.
+ *
+ * Statements have no terminator, so the source is split only at the start of a line at which
+ * a new top-level statement must begin: outside strings, comments, braces, parentheses and
+ * brackets, after a token that can end a statement, and before one that can only start a
+ * statement (an identifier, or FN, IF, FOR, WHILE, SWITCH, WRITE or a type).  Each chunk is
+ * parsed as a program whose first line is the chunk's line in the source, so positions, and
+ * so errors, are those of the whole source.
+ *
+ * The scan for those points is cruder than the lexer, so a split can still be wrong, but then
+ * the chunk before it fails to parse.  So the statements of the chunks before the
+ * first that fails are kept, and the rest of the source from that chunk on is parsed
+ * sequentially, which gives the same tree, or throws the same error, as parsing it all
+ * sequentially.
+ */
+
+public class ParallelFrontEnd {
+    // Chunks smaller than this aren't worth a task.
+    private static final int MINIMUM_CHUNK = 256 * 1024;
+
+    // Keywords that can start a top-level statement, and those that can end one.
+    private static final String[] statementKeywords = {
+        "fn", "if", "for", "while", "switch", "write", "int", "string", "float", "bool"
+    };
+    private static final String[] endingKeywords = { "true", "false" };
+    // Keywords followed by a parenthesised header, after which the statement goes on.
+    private static final String[] headerKeywords = { "fn", "if", "elseif", "for", "while", "switch" };
+    private static final String[] otherKeywords = {
+        "elseif", "else", "case", "default", "break", "return", "or", "and", "not"
+    };
+
+    private final ByteBuffer source;
+    private final int size;
+    private final Function<SimpleCharStream, JlangTokenManager> lexers;
+
+    // Offsets at which chunks start, and their first line numbers.
+    private final List<Integer> starts = new ArrayList<>();
+    private final List<Integer> lines = new ArrayList<>();
+
+    private ParallelFrontEnd(ByteBuffer source, Function<SimpleCharStream, JlangTokenManager> lexers) {
+        this.source = source.slice();
+        size = this.source.limit();
+        this.lexers = lexers;
+    }
+
+    /** True if source, from position to limit, is large enough to be split, so that parsing it in
+     * parallel can be worth the threads. */
+    public static boolean isLarge(ByteBuffer source) {
+        return source.remaining() >= 2 * MINIMUM_CHUNK;
+    }
+
+    /** Parse source, from position to limit, in about chunks pieces on pool.  Lexers are
+     * made by lexers. */
+    public static ASTCode parse(ByteBuffer source, int chunks, ForkJoinPool pool,
+                                Function<SimpleCharStream, JlangTokenManager> lexers) throws ParseException {
+        ParallelFrontEnd frontEnd = new ParallelFrontEnd(source, lexers);
+        frontEnd.split(Math.max(MINIMUM_CHUNK, frontEnd.size / Math.max(1, chunks)));
+        return frontEnd.parse(pool);
+    }
+
+    // Parse the chunk that starts at starts.get(i), up to the end of the source if all is true.
+    private ASTCode parseChunk(int i, boolean all) throws ParseException {
+        ByteBuffer chunk = source.duplicate();
+        chunk.position(starts.get(i));
+        if (!all && i + 1 < starts.size())
+            chunk.limit(starts.get(i + 1));
+        return new Jlang(lexers.apply(new MappedCharStream(chunk, lines.get(i)))).code();
+    }
+
+    private ASTCode parse(ForkJoinPool pool) throws ParseException {
+        if (starts.size() == 1)
+            return parseChunk(0, true);
+        List<ForkJoinTask<ASTCode>> tasks = new ArrayList<>();
+        for (int i = 0; i < starts.size(); i++) {
+            final int chunk = i;
+            tasks.add(pool.submit(() -> {
+                try {
+                    return parseChunk(chunk, false);
+                } catch (ParseException | TokenMgrError e) {
+                    return null;
+                }
+            }));
+        }
+        List<ASTCode> parts = new ArrayList<>();
+        int count = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            ASTCode part = tasks.get(i).join();
+            boolean failed = part == null;
+            if (failed) {
+                for (int j = i + 1; j < tasks.size(); j++)
+                    tasks.get(j).cancel(false);
+                part = parseChunk(i, true);
+            }
+            parts.add(part);
+            count += part.jjtGetNumChildren();
+            if (failed)
+                break;
+        }
+        // Add the statements last first, as jjtree does, so the array of children is made once.
+        ASTCode code = new ASTCode(JlangTreeConstants.JJTCODE);
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            ASTCode part = parts.get(i);
+            for (int j = part.jjtGetNumChildren() - 1; j >= 0; j--) {
+                Node statement = part.jjtGetChild(j);
+                statement.jjtSetParent(code);
+                code.jjtAddChild(statement, --count);
+            }
+        }
+        return code;
+    }
+
+    // Record the chunks to parse, each starting at least target bytes after the last.
+    private void split(int target) {
+        starts.add(0);
+        lines.add(1);
+        int line = 1;
+        int lineStart = 0;
+        int depth = 0;
+        boolean atLineStart = true;
+        // Whether the last token can end a statement, and whether a header is open.
+        boolean ending = false;
+        boolean header = false;
+        int i = 0;
+        while (i < size) {
+            int c = source.get(i);
+            if (c == '\n' || (c == '\r' && (i + 1 == size || source.get(i + 1) != '\n'))) {
+                line++;
+                lineStart = ++i;
+                atLineStart = true;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+                i++;
+                continue;
+            }
+            if (c == '/' && i + 1 < size && source.get(i + 1) == '/') {
+                while (i < size && source.get(i) != '\n' && source.get(i) != '\r')
+                    i++;
+                continue;
+            }
+            if (c == '/' && i + 1 < size && source.get(i + 1) == '*') {
+                for (i += 2; i + 1 < size && (source.get(i) != '*' || source.get(i + 1) != '/'); i++)
+                    if (source.get(i) == '\n' || (source.get(i) == '\r' && source.get(i + 1) != '\n')) {
+                        // What follows the comment isn't at the start of its line.
+                        line++;
+                        atLineStart = false;
+                    }
+                if (i + 1 >= size)
+                    return;
+                i += 2;
+                continue;
+            }
+            int end = tokenEnd(i);
+            if (end < 0)
+                return;
+            if (atLineStart && depth == 0 && ending && lineStart - starts.get(starts.size() - 1) >= target
+                    && startsStatement(i, end)) {
+                starts.add(lineStart);
+                lines.add(line);
+            }
+            atLineStart = false;
+            if (c == '(' || c == '{' || c == '[') {
+                depth++;
+                ending = false;
+            } else if (c == ')' || c == '}' || c == ']') {
+                if (--depth < 0)
+                    return;
+                ending = !(header && depth == 0);
+                if (depth == 0)
+                    header = false;
+            } else if (isWordChar(c)) {
+                ending = isDigit(c) || endsStatement(i, end);
+                if (depth == 0 && isOneOf(i, end, headerKeywords))
+                    header = true;
+            }
+            else
+                ending = c == '"' || c == '\'' || (c == '.' && end > i + 1);
+            i = end;
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    // A char of an identifier, keyword or number, taking every non-ASCII byte as a letter.
+    private static boolean isWordChar(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_' || c == '$' || c == '#'
+                || c < 0;
+    }
+
+    // The offset after the token at i, or -1 if it is a string that isn't closed on its line.
+    private int tokenEnd(int i) {
+        int c = source.get(i);
+        if (c == '"' || c == '\'') {
+            for (int j = i + 1; j < size; j++) {
+                int d = source.get(j);
+                if (d == c)
+                    return j + 1;
+                if (d == '\n' || d == '\r')
+                    return -1;
+                if (d == '\\')
+                    j++;
+            }
+            return -1;
+        }
+        if (c == '.' && i + 1 < size && isDigit(source.get(i + 1)))
+            c = '0';
+        if (!isWordChar(c))
+            return i + 1;
+        int j = i + 1;
+        // A number's point and exponent sign are part of it.
+        boolean number = isDigit(c);
+        while (j < size) {
+            int d = source.get(j);
+            if (isWordChar(d) || (number && (d == '.' || ((d == '+' || d == '-')
+                    && (source.get(j - 1) | 0x20) == 'e'))))
+                j++;
+            else
+                break;
+        }
+        return j;
+    }
+
+    // True if the word from i to end is one of keywords, in any case.
+    private boolean isOneOf(int i, int end, String[] keywords) {
+        for (String keyword : keywords) {
+            if (keyword.length() != end - i)
+                continue;
+            int j = 0;
+            while (j < keyword.length() && (source.get(i + j) | 0x20) == keyword.charAt(j))
+                j++;
+            if (j == keyword.length())
+                return true;
+        }
+        return false;
+    }
+
+    // True if the token from i to end can only start a statement.
+    private boolean startsStatement(int i, int end) {
+        int c = source.get(i);
+        if (!isWordChar(c) || isDigit(c))
+            return false;
+        return isOneOf(i, end, statementKeywords)
+                || !(isOneOf(i, end, endingKeywords) || isOneOf(i, end, otherKeywords));
+    }
+
+    // True if the word from i to end can end a statement.
+    private boolean endsStatement(int i, int end) {
+        return !(isOneOf(i, end, statementKeywords) || isOneOf(i, end, otherKeywords));
+    }
+}
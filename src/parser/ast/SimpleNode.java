@@ -48,6 +48,8 @@ class SimpleNode extends intepreter.BaseASTNode implements Node {
     return (children == null) ? 0 : children.length;
   }
 
+  public int getId() { return id; }
+
   public void jjtSetValue(Object value) { this.value = value; }
   public Object jjtGetValue() { return value; }
 
@@ -0,0 +1,57 @@
+package parser.ast;
+
+import java.util.function.Consumer;
+
+/** A Jlang parser that hands each top-level statement to a consumer as soon as it has been
+ * parsed, instead of adding it to the ASTCode, which code() returns empty.
+ *
+ * The statements are taken from jjtree's node stack as they are closed, so code() itself
+ * parses the program, and throws the same ParseExceptions at the same tokens as Jlang.
+ * Whatever the consumer throws stops the parse.  The lines before each statement are
+ * forgotten by an OffsetCharStream once it has been parsed, so neither the tree nor the
+ * stream's position tables grow with the program.
+ */
+
+public class StreamingJlang extends Jlang {
+    /** Ctor for a parser that reads tokens from tm and hands statements to consumer. */
+    public StreamingJlang(JlangTokenManager tm, Consumer<ASTStatement> consumer) {
+        super(tm);
+        jjtree = new StatementScopes(consumer);
+    }
+
+    // A node stack on which top-level statements are not left.
+    private class StatementScopes extends JJTJlangState {
+        private final Consumer<ASTStatement> consumer;
+        // Node scopes open: 1 within the ASTCode, 2 within a top-level statement.
+        private int depth = 0;
+
+        StatementScopes(Consumer<ASTStatement> consumer) {
+            this.consumer = consumer;
+        }
+
+        public void openNodeScope(Node n) {
+            depth++;
+            super.openNodeScope(n);
+        }
+
+        public void clearNodeScope(Node n) {
+            depth--;
+            super.clearNodeScope(n);
+        }
+
+        public void closeNodeScope(Node n, int num) {
+            depth--;
+            super.closeNodeScope(n, num);
+        }
+
+        public void closeNodeScope(Node n, boolean condition) {
+            super.closeNodeScope(n, condition);
+            if (--depth == 1 && condition && n instanceof ASTStatement) {
+                popNode();
+                if (token_source.input_stream instanceof OffsetCharStream)
+                    ((OffsetCharStream)token_source.input_stream).forgetEarlierLines();
+                consumer.accept((ASTStatement)n);
+            }
+        }
+    }
+}
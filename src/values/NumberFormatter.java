@@ -0,0 +1,198 @@
+package values;
+
+/** Formatting of integers and floats as ASCII digits written straight into a byte array.
+ *
+ * Integers are formatted as Long.toString() would.  Floats use the layout of
+ * Double.toString() - fixed notation with at least one fractional digit for magnitudes in
+ * [0.001, 10000000), otherwise d.dddEn - but with the fewest digits that convert back to
+ * the same double.  A float in fixed range is m / 10^k for the smallest k for which some m
+ * lies within its rounding interval, and the m nearest the float is used.  Both are
+ * computed exactly in 128-bit integer arithmetic.  Integral floats below 2^53 are formatted exactly in
+ * scientific notation.  The remaining floats, which are rare in practice, are left to
+ * Double.toString().
+ */
+
+public final class NumberFormatter {
+    /** Bytes of space needed to format any long. */
+    public static final int LONG_SIZE = 20;
+    /** Bytes of space needed to format any double. */
+    public static final int DOUBLE_SIZE = 32;
+
+    private static final int MAX_FRACTION_DIGITS = 17;
+
+    private static final double[] doublePowers = new double[MAX_FRACTION_DIGITS + 1];
+    private static final long[] longPowers = new long[19];
+
+    private static final byte[] NAN = { 'N', 'a', 'N' };
+    private static final byte[] INFINITY = { 'I', 'n', 'f', 'i', 'n', 'i', 't', 'y' };
+    private static final byte[] ZERO = { '0', '.', '0' };
+
+    static {
+        long power = 1;
+        for (int i = 0; i < longPowers.length; i++) {
+            longPowers[i] = power;
+            if (i < doublePowers.length)
+                doublePowers[i] = power;
+            power *= 10;
+        }
+    }
+
+    private NumberFormatter() {
+    }
+
+    /** Write a long at buffer[offset], which has at least LONG_SIZE bytes free.  Return the
+     * offset after the last byte written.
+     */
+    public static int format(long n, byte[] buffer, int offset) {
+        if (n < 0) {
+            buffer[offset++] = '-';
+            // Work with the negative, so that Long.MIN_VALUE needs no special case.
+        } else
+            n = -n;
+        int end = offset + digitCount(n);
+        int i = end;
+        do {
+            buffer[--i] = (byte)('0' - n % 10);
+            n /= 10;
+        } while (n != 0);
+        return end;
+    }
+
+    // Number of digits in a non-positive long.
+    private static int digitCount(long negative) {
+        int count = 1;
+        for (long bound = -10; count < 19 && negative <= bound; bound *= 10)
+            count++;
+        return count;
+    }
+
+    /** Write a double at buffer[offset], which has at least DOUBLE_SIZE bytes free.  Return
+     * the offset after the last byte written.
+     */
+    public static int format(double d, byte[] buffer, int offset) {
+        if (d != d)
+            return copy(NAN, buffer, offset);
+        if (Double.doubleToRawLongBits(d) < 0) {
+            buffer[offset++] = '-';
+            d = -d;
+        }
+        if (d == Double.POSITIVE_INFINITY)
+            return copy(INFINITY, buffer, offset);
+        if (d == 0)
+            return copy(ZERO, buffer, offset);
+        if (d >= 1e-3 && d < 1e7) {
+            long bits = Double.doubleToRawLongBits(d);
+            long f = (bits & 0xFFFFFFFFFFFFFL) | (1L << 52);
+            int q = 1075 - (int)(bits >>> 52);
+            for (int k = 0; k <= MAX_FRACTION_DIGITS; k++) {
+                if (d * doublePowers[k] >= 0x1p62)
+                    break;
+                long m = nearest(k, f, q);
+                if (converts(m, k, f, q))
+                    return fixed(m, k, buffer, offset);
+            }
+        } else if (d >= 1e7 && d < 0x1p53 && d == Math.rint(d))
+            return scientific((long)d, buffer, offset);
+        String s = Double.toString(d);
+        for (int i = 0; i < s.length(); i++)
+            buffer[offset++] = (byte)s.charAt(i);
+        return offset;
+    }
+
+    /** Return a double formatted as by format(), as a String. */
+    public static String toString(double d) {
+        byte[] buffer = new byte[DOUBLE_SIZE];
+        return new String(buffer, 0, format(d, buffer, 0), java.nio.charset.StandardCharsets.ISO_8859_1);
+    }
+
+    // The integer nearest to f 10^k / 2^q, where 0 < q < 64, computed exactly in 128 bits.
+    // Exactly halfway between two integers, the even one, as Double.toString() chooses.
+    private static long nearest(int k, long f, int q) {
+        long power = longPowers[k];
+        long high = Math.multiplyHigh(f, power);
+        long low = f * power;
+        long m = (high << (64 - q)) | (low >>> q);
+        if (((low >>> (q - 1)) & 1) == 0)
+            return m;
+        boolean tie = (low << (65 - q)) == 0;
+        return (tie && (m & 1) == 0) ? m : m + 1;
+    }
+
+    /* True if m / 10^k converts back to the double f / 2^q.  f is a 53-bit significand and
+     * 29 <= q <= 62, so m 2^q and f 10^k are compared exactly as 128-bit integers.  A decimal
+     * exactly halfway to a neighbouring double is treated as not converting back.
+     */
+    private static boolean converts(long m, int k, long f, int q) {
+        long power = longPowers[k];
+        long high = (m >>> (64 - q)) - Math.multiplyHigh(f, power);
+        long low = (m << q) - f * power;
+        if (Long.compareUnsigned(m << q, f * power) < 0)
+            high--;
+        boolean below = high < 0;
+        if (below) {
+            // Negate the 128-bit difference.
+            high = ~high;
+            low = -low;
+            if (low == 0)
+                high++;
+        }
+        if (high != 0 || low < 0 || low > Long.MAX_VALUE / 4)
+            return false;
+        // Within half the gap to the neighbouring double, which is 2^-q, or 2^-(q+1) below
+        // a power of two.
+        long limit = (below && f == 1L << 52) ? power : 2 * power;
+        return 4 * low < limit;
+    }
+
+    // Write m / 10^k in fixed notation.
+    private static int fixed(long m, int k, byte[] buffer, int offset) {
+        // Drop trailing zeros of the fraction, which a smaller k would have had.
+        while (k > 0 && m % 10 == 0) {
+            m /= 10;
+            k--;
+        }
+        long whole = m / longPowers[k];
+        long fraction = m % longPowers[k];
+        offset = format(whole, buffer, offset);
+        buffer[offset++] = '.';
+        if (k == 0) {
+            buffer[offset++] = '0';
+            return offset;
+        }
+        for (int i = offset + k - 1; i >= offset; i--) {
+            buffer[i] = (byte)('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return offset + k;
+    }
+
+    // Write a positive integer of at least 8 digits as d.dddEn.
+    private static int scientific(long n, byte[] buffer, int offset) {
+        int exponent = digitCount(-n) - 1;
+        long divisor = longPowers[exponent];
+        buffer[offset++] = (byte)('0' + n / divisor);
+        buffer[offset++] = '.';
+        long rest = n % divisor;
+        if (rest == 0)
+            buffer[offset++] = '0';
+        else {
+            int digits = exponent;
+            while (rest % 10 == 0) {
+                rest /= 10;
+                digits--;
+            }
+            for (int i = offset + digits - 1; i >= offset; i--) {
+                buffer[i] = (byte)('0' + rest % 10);
+                rest /= 10;
+            }
+            offset += digits;
+        }
+        buffer[offset++] = 'E';
+        return format((long)exponent, buffer, offset);
+    }
+
+    private static int copy(byte[] text, byte[] buffer, int offset) {
+        System.arraycopy(text, 0, buffer, offset, text.length);
+        return offset + text.length;
+    }
+}
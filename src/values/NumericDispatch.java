@@ -0,0 +1,163 @@
+package values;
+
+/** Arithmetic and comparison between numeric Values, dispatched on both operand types.
+ *
+ * Each (left type, right type) pair has its own implementation, so that a call site
+ * which only ever sees one pair stays monomorphic.  Promotion rules:
+ *
+ *  integer  op integer  -> integer   (division truncates)
+ *  integer  op rational -> rational
+ *  integer  op float    -> float
+ *  rational op rational -> rational
+ *  rational op float    -> float
+ *  float    op float    -> float
+ *
+ * and likewise with the operands swapped.  Comparisons between an integer and a float
+ * or rational are exact.  A non-numeric right operand is converted to the type of the
+ * left, which throws ExceptionSemantic.
+ */
+
+final class NumericDispatch {
+    static final int INTEGER = 0;
+    static final int RATIONAL = 1;
+    static final int FLOAT = 2;
+    static final int OTHER = 3;
+
+    /** Implementation of the numeric operations for one pair of operand types. */
+    static abstract class Pair {
+        abstract Value add(Value left, Value right);
+        abstract Value subtract(Value left, Value right);
+        abstract Value mult(Value left, Value right);
+        abstract Value div(Value left, Value right);
+        abstract int compare(Value left, Value right);
+    }
+
+    private static final Pair[][] table = {
+        { new IntegerInteger(), new IntegerRational(), new IntegerFloat(), new IntegerInteger() },
+        { new RationalInteger(), new RationalRational(), new RationalFloat(), new RationalRational() },
+        { new FloatInteger(), new FloatRational(), new FloatFloat(), new FloatFloat() }
+    };
+
+    private NumericDispatch() {
+    }
+
+    /** Get the numeric type of a Value. */
+    static int numericType(Value v) {
+        return (v instanceof ValueAbstract) ? ((ValueAbstract)v).numericType() : OTHER;
+    }
+
+    /** Get the implementation for a numeric left operand and any right operand. */
+    static Pair pair(ValueAbstract left, Value right) {
+        return table[left.numericType()][numericType(right)];
+    }
+
+    /** Compare with the convention of Value.compare(): 0 if equal, 1 if greater, otherwise -1. */
+    static int compare(double left, double right) {
+        if (left == right)
+            return 0;
+        return (left > right) ? 1 : -1;
+    }
+
+    /** Compare with the convention of Value.compare(): 0 if equal, 1 if greater, otherwise -1. */
+    static int compare(long left, long right) {
+        if (left == right)
+            return 0;
+        return (left > right) ? 1 : -1;
+    }
+
+    /** Compare an integer and a double exactly, with the convention of Value.compare(). */
+    static int compare(long left, double right) {
+        if (Double.isNaN(right))
+            return -1;
+        if (right >= 0x1p63)
+            return -1;
+        if (right < -0x1p63)
+            return 1;
+        long whole = (long)right;
+        if (left != whole)
+            return (left > whole) ? 1 : -1;
+        double fraction = right - whole;
+        if (fraction == 0)
+            return 0;
+        return (fraction > 0) ? -1 : 1;
+    }
+
+    /** Compare a double and an integer exactly, with the convention of Value.compare(). */
+    static int compare(double left, long right) {
+        if (Double.isNaN(left))
+            return -1;
+        return -compare(right, left);
+    }
+
+    private static final class IntegerInteger extends Pair {
+        Value add(Value left, Value right) { return ValueInteger.valueOf(left.longValue() + right.longValue()); }
+        Value subtract(Value left, Value right) { return ValueInteger.valueOf(left.longValue() - right.longValue()); }
+        Value mult(Value left, Value right) { return ValueInteger.valueOf(left.longValue() * right.longValue()); }
+        Value div(Value left, Value right) { return ValueInteger.valueOf(left.longValue() / right.longValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.longValue(), right.longValue()); }
+    }
+
+    private static final class IntegerRational extends Pair {
+        Value add(Value left, Value right) { return ValueRational.valueOf(left.longValue() + right.doubleValue()); }
+        Value subtract(Value left, Value right) { return ValueRational.valueOf(left.longValue() - right.doubleValue()); }
+        Value mult(Value left, Value right) { return ValueRational.valueOf(left.longValue() * right.doubleValue()); }
+        Value div(Value left, Value right) { return ValueRational.valueOf(left.longValue() / right.doubleValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.longValue(), right.doubleValue()); }
+    }
+
+    private static final class IntegerFloat extends Pair {
+        Value add(Value left, Value right) { return ValueFloat.valueOf(left.longValue() + right.doubleValue()); }
+        Value subtract(Value left, Value right) { return ValueFloat.valueOf(left.longValue() - right.doubleValue()); }
+        Value mult(Value left, Value right) { return ValueFloat.valueOf(left.longValue() * right.doubleValue()); }
+        Value div(Value left, Value right) { return ValueFloat.valueOf(left.longValue() / right.doubleValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.longValue(), right.doubleValue()); }
+    }
+
+    private static final class RationalInteger extends Pair {
+        Value add(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() + right.longValue()); }
+        Value subtract(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() - right.longValue()); }
+        Value mult(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() * right.longValue()); }
+        Value div(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() / right.longValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.doubleValue(), right.longValue()); }
+    }
+
+    private static final class RationalRational extends Pair {
+        Value add(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() + right.doubleValue()); }
+        Value subtract(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() - right.doubleValue()); }
+        Value mult(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() * right.doubleValue()); }
+        Value div(Value left, Value right) { return ValueRational.valueOf(left.doubleValue() / right.doubleValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.doubleValue(), right.doubleValue()); }
+    }
+
+    private static final class RationalFloat extends Pair {
+        Value add(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() + right.doubleValue()); }
+        Value subtract(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() - right.doubleValue()); }
+        Value mult(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() * right.doubleValue()); }
+        Value div(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() / right.doubleValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.doubleValue(), right.doubleValue()); }
+    }
+
+    private static final class FloatInteger extends Pair {
+        Value add(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() + right.longValue()); }
+        Value subtract(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() - right.longValue()); }
+        Value mult(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() * right.longValue()); }
+        Value div(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() / right.longValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.doubleValue(), right.longValue()); }
+    }
+
+    private static final class FloatRational extends Pair {
+        Value add(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() + right.doubleValue()); }
+        Value subtract(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() - right.doubleValue()); }
+        Value mult(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() * right.doubleValue()); }
+        Value div(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() / right.doubleValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.doubleValue(), right.doubleValue()); }
+    }
+
+    private static final class FloatFloat extends Pair {
+        Value add(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() + right.doubleValue()); }
+        Value subtract(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() - right.doubleValue()); }
+        Value mult(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() * right.doubleValue()); }
+        Value div(Value left, Value right) { return ValueFloat.valueOf(left.doubleValue() / right.doubleValue()); }
+        int compare(Value left, Value right) { return NumericDispatch.compare(left.doubleValue(), right.doubleValue()); }
+    }
+}
@@ -0,0 +1,72 @@
+package values;
+
+/** Tagged primitive representation of Values.
+ *
+ * An integer, float or boolean can be carried through the evaluator as a tag plus a
+ * 64-bit word, without a Value being allocated for it: an integer's word is its value,
+ * a float's word is its IEEE 754 bits and a boolean's word is 1 or 0.  Strings and any
+ * other Value are carried by reference, with the tag REFERENCE.
+ */
+
+public final class Tagged {
+    public static final int REFERENCE = 0;
+    public static final int INTEGER = 1;
+    public static final int FLOAT = 2;
+    public static final int BOOLEAN = 3;
+
+    private Tagged() {
+    }
+
+    /** Get the tag of a Value.  A null Value is a reference. */
+    public static int tagOf(Value v) {
+        return (v == null) ? REFERENCE : v.getTag();
+    }
+
+    /** Get the word of a Value whose tag is not REFERENCE. */
+    public static long wordOf(Value v, int tag) {
+        switch (tag) {
+            case INTEGER:
+                return v.longValue();
+            case FLOAT:
+                return Double.doubleToRawLongBits(v.doubleValue());
+            case BOOLEAN:
+                return fromBoolean(v.booleanValue());
+            default:
+                throw new IllegalArgumentException("A reference has no word.");
+        }
+    }
+
+    /** Return the Value represented by a tag and word, or the reference if it is one. */
+    public static Value box(int tag, long word, Value reference) {
+        switch (tag) {
+            case INTEGER:
+                return ValueInteger.valueOf(word);
+            case FLOAT:
+                return ValueFloat.valueOf(toDouble(word));
+            case BOOLEAN:
+                return ValueBoolean.valueOf(toBoolean(word));
+            default:
+                return reference;
+        }
+    }
+
+    /** Return the word of a float. */
+    public static long fromDouble(double d) {
+        return Double.doubleToRawLongBits(d);
+    }
+
+    /** Return the float held in a word. */
+    public static double toDouble(long word) {
+        return Double.longBitsToDouble(word);
+    }
+
+    /** Return the word of a boolean. */
+    public static long fromBoolean(boolean b) {
+        return b ? 1 : 0;
+    }
+
+    /** Return the boolean held in a word. */
+    public static boolean toBoolean(long word) {
+        return word != 0;
+    }
+}
@@ -9,6 +9,9 @@ public interface Value {
     /** Get name of this Value type. */
     public String getName();
 
+    /** Get the Tagged tag of this Value type. */
+    public int getTag();
+
     /** Perform logical OR on this value and another. */
     public Value or(Value v);
 
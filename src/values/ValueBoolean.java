@@ -1,16 +1,29 @@
 package values;
 
-public class ValueBoolean extends ValueAbstract {
-    private boolean internalValue;
+public final class ValueBoolean extends ValueAbstract {
+    /** The canonical true and false.  No other ValueBoolean is ever created. */
+    public static final ValueBoolean TRUE = new ValueBoolean(true);
+    public static final ValueBoolean FALSE = new ValueBoolean(false);
 
-    public ValueBoolean(boolean b) {
+    private final boolean internalValue;
+
+    private ValueBoolean(boolean b) {
         internalValue = b;
     }
 
+    /** Return the canonical ValueBoolean for a boolean. */
+    public static ValueBoolean valueOf(boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
     public String getName() {
         return "boolean";
     }
 
+    public int getTag() {
+        return Tagged.BOOLEAN;
+    }
+
     /** Convert this to a primitive boolean. */
     public boolean booleanValue() {
         return internalValue;
@@ -22,15 +35,15 @@ public class ValueBoolean extends ValueAbstract {
     }
 
     public Value or(Value v) {
-        return new ValueBoolean(internalValue || v.booleanValue());
+        return valueOf(internalValue || v.booleanValue());
     }
 
     public Value and(Value v) {
-        return new ValueBoolean(internalValue && v.booleanValue());
+        return valueOf(internalValue && v.booleanValue());
     }
 
     public Value not() {
-        return new ValueBoolean(!internalValue);
+        return valueOf(!internalValue);
     }
 
     public int compare(Value v) {
@@ -1,16 +1,29 @@
 package values;
 
-public class ValueFloat extends ValueAbstract {
-	private double internalValue;
+public final class ValueFloat extends ValueAbstract {
+	private final double internalValue;
 	
-	public ValueFloat(double b) {
+	private ValueFloat(double b) {
         internalValue = b;
     }
 
+    /** Return a ValueFloat for a double. */
+    public static ValueFloat valueOf(double b) {
+        return new ValueFloat(b);
+    }
+
     public String getName() {
         return "float";
     }
 
+    int numericType() {
+        return NumericDispatch.FLOAT;
+    }
+
+    public int getTag() {
+        return Tagged.FLOAT;
+    }
+
     /** Convert this to a primitive double. */
     public double doubleValue() {
         return (double)internalValue;
@@ -18,44 +31,39 @@ public class ValueFloat extends ValueAbstract {
 
     /** Convert this to a primitive String. */
     public String stringValue() {
-        return "" + internalValue;
+        return NumberFormatter.toString(internalValue);
     }
 
     public int compare(Value v) {
-        if (internalValue == v.doubleValue())
-            return 0;
-        else if (internalValue > v.doubleValue())
-            return 1;
-        else
-            return -1;
+        return NumericDispatch.pair(this, v).compare(this, v);
     }
 
     public Value add(Value v) {
-        return new ValueFloat(internalValue + v.doubleValue());
+        return NumericDispatch.pair(this, v).add(this, v);
     }
 
     public Value subtract(Value v) {
-        return new ValueFloat(internalValue - v.doubleValue());
+        return NumericDispatch.pair(this, v).subtract(this, v);
     }
 
     public Value mult(Value v) {
-        return new ValueFloat(internalValue * v.doubleValue());
+        return NumericDispatch.pair(this, v).mult(this, v);
     }
 
     public Value div(Value v) {
-        return new ValueFloat(internalValue / v.doubleValue());
+        return NumericDispatch.pair(this, v).div(this, v);
     }
 
     public Value unary_plus() {
-        return new ValueFloat(internalValue);
+        return this;
     }
 
     public Value unary_minus() {
-        return new ValueFloat(-internalValue);
+        return valueOf(-internalValue);
     }
 
     public String toString() {
-        return "" + internalValue;
+        return NumberFormatter.toString(internalValue);
     }
 
 }
@@ -1,16 +1,41 @@
 package values;
 
-public class ValueInteger extends ValueAbstract {
-    private long internalValue;
+public final class ValueInteger extends ValueAbstract {
+    // Shared instances of small integers, which are by far the most common.
+    private static final long CACHE_LOW = -128;
+    private static final long CACHE_HIGH = 1024;
+    private static final ValueInteger[] cache = new ValueInteger[(int)(CACHE_HIGH - CACHE_LOW) + 1];
 
-    public ValueInteger(long b) {
+    static {
+        for (int i = 0; i < cache.length; i++)
+            cache[i] = new ValueInteger(CACHE_LOW + i);
+    }
+
+    private final long internalValue;
+
+    private ValueInteger(long b) {
         internalValue = b;
     }
 
+    /** Return a ValueInteger for a long, shared if it is small. */
+    public static ValueInteger valueOf(long b) {
+        if (b >= CACHE_LOW && b <= CACHE_HIGH)
+            return cache[(int)(b - CACHE_LOW)];
+        return new ValueInteger(b);
+    }
+
     public String getName() {
         return "integer";
     }
 
+    int numericType() {
+        return NumericDispatch.INTEGER;
+    }
+
+    public int getTag() {
+        return Tagged.INTEGER;
+    }
+
     /** Convert this to a primitive long. */
     public long longValue() {
         return internalValue;
@@ -23,43 +48,38 @@ public class ValueInteger extends ValueAbstract {
 
     /** Convert this to a primitive String. */
     public String stringValue() {
-        return "" + internalValue;
+        return Long.toString(internalValue);
     }
 
     public int compare(Value v) {
-        if (internalValue == v.longValue())
-            return 0;
-        else if (internalValue > v.longValue())
-            return 1;
-        else
-            return -1;
+        return NumericDispatch.pair(this, v).compare(this, v);
     }
 
     public Value add(Value v) {
-        return new ValueInteger(internalValue + v.longValue());
+        return NumericDispatch.pair(this, v).add(this, v);
     }
 
     public Value subtract(Value v) {
-        return new ValueInteger(internalValue - v.longValue());
+        return NumericDispatch.pair(this, v).subtract(this, v);
     }
 
     public Value mult(Value v) {
-        return new ValueInteger(internalValue * v.longValue());
+        return NumericDispatch.pair(this, v).mult(this, v);
     }
 
     public Value div(Value v) {
-        return new ValueInteger(internalValue / v.longValue());
+        return NumericDispatch.pair(this, v).div(this, v);
     }
 
     public Value unary_plus() {
-        return new ValueInteger(internalValue);
+        return this;
     }
 
     public Value unary_minus() {
-        return new ValueInteger(-internalValue);
+        return valueOf(-internalValue);
     }
 
     public String toString() {
-        return "" + internalValue;
+        return Long.toString(internalValue);
     }
 }
@@ -1,16 +1,25 @@
 package values;
 
-public class ValueRational extends ValueAbstract {
-    private double internalValue;
+public final class ValueRational extends ValueAbstract {
+    private final double internalValue;
 
-    public ValueRational(double b) {
+    private ValueRational(double b) {
         internalValue = b;
     }
 
+    /** Return a ValueRational for a double. */
+    public static ValueRational valueOf(double b) {
+        return new ValueRational(b);
+    }
+
     public String getName() {
         return "rational";
     }
 
+    int numericType() {
+        return NumericDispatch.RATIONAL;
+    }
+
     /** Convert this to a primitive double. */
     public double doubleValue() {
         return (double)internalValue;
@@ -18,43 +27,38 @@ public class ValueRational extends ValueAbstract {
 
     /** Convert this to a primitive String. */
     public String stringValue() {
-        return "" + internalValue;
+        return NumberFormatter.toString(internalValue);
     }
 
     public int compare(Value v) {
-        if (internalValue == v.doubleValue())
-            return 0;
-        else if (internalValue > v.doubleValue())
-            return 1;
-        else
-            return -1;
+        return NumericDispatch.pair(this, v).compare(this, v);
     }
 
     public Value add(Value v) {
-        return new ValueRational(internalValue + v.doubleValue());
+        return NumericDispatch.pair(this, v).add(this, v);
     }
 
     public Value subtract(Value v) {
-        return new ValueRational(internalValue - v.doubleValue());
+        return NumericDispatch.pair(this, v).subtract(this, v);
     }
 
     public Value mult(Value v) {
-        return new ValueRational(internalValue * v.doubleValue());
+        return NumericDispatch.pair(this, v).mult(this, v);
     }
 
     public Value div(Value v) {
-        return new ValueRational(internalValue / v.doubleValue());
+        return NumericDispatch.pair(this, v).div(this, v);
     }
 
     public Value unary_plus() {
-        return new ValueRational(internalValue);
+        return this;
     }
 
     public Value unary_minus() {
-        return new ValueRational(-internalValue);
+        return valueOf(-internalValue);
     }
 
     public String toString() {
-        return "" + internalValue;
+        return NumberFormatter.toString(internalValue);
     }
 }
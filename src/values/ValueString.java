@@ -1,6 +1,19 @@
 package values;
 
-public class ValueString extends ValueAbstract {
+/** A string Value.
+ *
+ * Concatenation appends to a StringBuilder shared with the string being added to, so
+ * building a string in a loop takes amortized constant time per append.  Each ValueString
+ * is the first length characters of its buffer, and only the ValueString whose text ends
+ * at the end of the buffer may append to it in place; any other copies its text first.
+ * The text is flattened into a String lazily, when it is compared, written or hashed.
+ */
+
+public final class ValueString extends ValueAbstract {
+    // Shared buffer holding this string's text, or null if the string is flat.
+    private final StringBuilder buffer;
+    private final int length;
+    // The text as a String, once flattened.
     private String internalValue;
 
     /** Return a ValueString given a quote-delimited source string. */
@@ -8,29 +21,90 @@ public class ValueString extends ValueAbstract {
         return new ValueString(b.substring(1, b.length() - 1));
     }
 
-    public ValueString(String b) {
+    private ValueString(String b) {
+        buffer = null;
+        length = b.length();
         internalValue = b;
     }
 
+    private ValueString(StringBuilder b, int n) {
+        buffer = b;
+        length = n;
+    }
+
+    /** Return a ValueString for a String. */
+    public static ValueString valueOf(String b) {
+        return new ValueString(b);
+    }
+
     public String getName() {
         return "string";
     }
 
+    /** Get the length of this string. */
+    public int length() {
+        return length;
+    }
+
+    /** Append this string's text to a StringBuilder. */
+    public void appendTo(StringBuilder sb) {
+        String flat = internalValue;
+        if (flat != null)
+            sb.append(flat);
+        else {
+            synchronized (buffer) {
+                sb.append(buffer, 0, length);
+            }
+        }
+    }
+
     /** Convert this to a String. */
     public String stringValue() {
-        return internalValue;
+        String flat = internalValue;
+        if (flat == null) {
+            synchronized (buffer) {
+                flat = buffer.substring(0, length);
+            }
+            internalValue = flat;
+        }
+        return flat;
     }
 
     public int compare(Value v) {
-        return internalValue.compareTo(v.stringValue());
+        return stringValue().compareTo(v.stringValue());
     }
 
     /** Add performs string concatenation. */
     public Value add(Value v) {
-        return new ValueString(internalValue + v.stringValue());
+        return concat(v.stringValue());
+    }
+
+    /** Return this string followed by some text. */
+    public ValueString concat(CharSequence text) {
+        if (buffer != null) {
+            synchronized (buffer) {
+                // Append in place if nothing has been appended after this string.
+                if (buffer.length() == length) {
+                    buffer.append(text);
+                    return new ValueString(buffer, buffer.length());
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder(Math.max(2 * length, length + text.length()));
+        appendTo(sb);
+        sb.append(text);
+        return new ValueString(sb, sb.length());
+    }
+
+    public boolean equals(Object o) {
+        return (o instanceof ValueString) && stringValue().equals(((ValueString)o).stringValue());
+    }
+
+    public int hashCode() {
+        return stringValue().hashCode();
     }
 
     public String toString() {
-        return internalValue;
+        return stringValue();
     }
 }